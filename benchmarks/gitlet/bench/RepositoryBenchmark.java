@@ -0,0 +1,124 @@
+package gitlet.bench;
+
+import gitlet.Repository;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of gitlet's commands against synthetic repositories.
+ *
+ *  The size of the repository is set with the JMH parameters files
+ *  (tracked files per commit), depth (commits on master) and branches
+ *  (side branches), e.g. -p depth=10,1000.  Commands that print have
+ *  their output discarded.
+ *  @author beckettq
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RepositoryBenchmark {
+
+    /** The repository under test, built once per fork. */
+    @State(Scope.Benchmark)
+    public static class Repo {
+        @Param({"100"})
+        public int files;
+
+        @Param({"100"})
+        public int depth;
+
+        @Param({"2"})
+        public int branches;
+
+        SyntheticRepo repo;
+
+        @Setup(Level.Trial)
+        public void build() {
+            repo = new SyntheticRepo(files, Math.max(depth, 1), Math.max(branches, 1));
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+    }
+
+    /** Gives a tracked file new contents before each invocation. */
+    @State(Scope.Thread)
+    public static class Edited {
+        @Setup(Level.Invocation)
+        public void edit(Repo repo) {
+            repo.repo.edit("f0.txt");
+        }
+    }
+
+    /** Puts master back on its original head before each invocation. */
+    @State(Scope.Thread)
+    public static class Unmerged {
+        @Setup(Level.Invocation)
+        public void reset(Repo repo) {
+            Repository.reset(repo.repo.masterHead);
+        }
+    }
+
+    /** Remembers which branch checkoutBranch switches to next. */
+    @State(Scope.Thread)
+    public static class Toggle {
+        boolean onBranch;
+    }
+
+    @Benchmark
+    public void addFile(Repo repo, Edited edited) {
+        Repository.addFile("f0.txt");
+    }
+
+    @Benchmark
+    public void makeNewCommit(Repo repo, Edited edited) {
+        Repository.addFile("f0.txt");
+        Repository.makeNewCommit("benchmark commit");
+    }
+
+    @Benchmark
+    public void log(Repo repo) {
+        Repository.log();
+    }
+
+    @Benchmark
+    public void globalLog(Repo repo) {
+        Repository.globalLog();
+    }
+
+    @Benchmark
+    public void find(Repo repo) {
+        Repository.find("commit " + repo.depth / 2);
+    }
+
+    @Benchmark
+    public void checkoutBranch(Repo repo, Toggle toggle) {
+        Repository.checkoutBranch(toggle.onBranch ? "master" : "b0");
+        toggle.onBranch = !toggle.onBranch;
+    }
+
+    @Benchmark
+    public String lastCommonAncestor(Repo repo) {
+        return Repository.lastCommonAncestor(repo.repo.masterHead, repo.repo.branchHead);
+    }
+
+    @Benchmark
+    public void merge(Repo repo, Unmerged unmerged) throws IOException {
+        Repository.merge("b0");
+    }
+}
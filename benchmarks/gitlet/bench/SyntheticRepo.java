@@ -0,0 +1,118 @@
+package gitlet.bench;
+
+import gitlet.Repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+/** Builds a synthetic gitlet repository to benchmark against.
+ *
+ *  The repository lives in a fresh temporary directory, which becomes the
+ *  JVM's user.dir before gitlet.Repository is loaded, so one JVM can only
+ *  ever build one repository (JMH forks a JVM per parameter set).  Master
+ *  has DEPTH commits after the initial one, each tracking FILES files of
+ *  which about a tenth change per commit.  There are BRANCHES side
+ *  branches, named b0, b1, ..., each forking from the middle of master and
+ *  adding DEPTH / 4 commits that touch files of their own.
+ *  @author beckettq
+ */
+class SyntheticRepo {
+
+    /** The number of lines in each generated file. */
+    private static final int LINES = 40;
+
+    /** The working directory of the repository. */
+    final File dir;
+    /** The id of the head of master once built. */
+    String masterHead;
+    /** The id of the head of branch b0 once built, or null. */
+    String branchHead;
+
+    /** A generator for file contents, seeded so that runs are repeatable. */
+    private final Random random = new Random(61);
+    /** Counts edits so that every edit produces new contents. */
+    private int edits;
+
+    SyntheticRepo(int files, int depth, int branches) {
+        try {
+            dir = Files.createTempDirectory("gitlet-bench").toFile();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        System.setProperty("user.dir", dir.getPath());
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            build(files, depth, branches);
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+
+    private void build(int files, int depth, int branches) {
+        new Repository();
+        for (int f = 0; f < files; f += 1) {
+            edit("f" + f + ".txt");
+        }
+        Repository.addFiles(List.of("."));
+        Repository.makeNewCommit("commit 0");
+        int changed = Math.max(1, files / 10);
+        for (int c = 1; c <= depth; c += 1) {
+            for (int i = 0; i < changed; i += 1) {
+                String name = "f" + random.nextInt(files) + ".txt";
+                edit(name);
+                Repository.addFile(name);
+            }
+            Repository.makeNewCommit("commit " + c);
+            if (c == depth / 2) {
+                for (int b = 0; b < branches; b += 1) {
+                    Repository.branch("b" + b);
+                }
+            }
+        }
+        masterHead = Repository.getRepo().getHeadCommit();
+        if (branches > 0 && depth < 2) {
+            for (int b = 0; b < branches; b += 1) {
+                Repository.branch("b" + b);
+            }
+        }
+        for (int b = 0; b < branches; b += 1) {
+            Repository.checkoutBranch("b" + b);
+            for (int c = 0; c < Math.max(1, depth / 4); c += 1) {
+                String name = "b" + b + "-" + (c % changed) + ".txt";
+                edit(name);
+                Repository.addFile(name);
+                Repository.makeNewCommit("branch b" + b + " commit " + c);
+            }
+            if (b == 0) {
+                branchHead = Repository.getRepo().getHeadCommit();
+            }
+        }
+        if (branches > 0) {
+            Repository.checkoutBranch("master");
+        }
+    }
+
+    /** Gives the working file NAME new contents. */
+    void edit(String name) {
+        StringBuilder contents = new StringBuilder();
+        edits += 1;
+        for (int i = 0; i < LINES; i += 1) {
+            contents.append("line ").append(i).append(' ')
+                .append(Long.toHexString(random.nextLong())).append('\n');
+        }
+        contents.append("edit ").append(edits).append('\n');
+        try {
+            Files.write(new File(dir, name).toPath(),
+                        contents.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
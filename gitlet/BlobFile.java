@@ -0,0 +1,258 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static gitlet.Utils.*;
+
+/** Reads and writes loose blob files and staged copies.
+ *
+ *  A blob file is a magic number, the number of the codec that compressed
+ *  it, the uncompressed size, and then the compressed contents.  Contents
+ *  are streamed through the codec a buffer at a time in both directions,
+ *  so memory use does not grow with the size of the file.  Blobs written
+ *  before compression was added have no header and are read as they are
+ *  until migrate gives them one.
+ *  A blob file may instead be the manifest of a ChunkedBlob, which is read
+ *  by streaming its chunks in order.
+ *  @author beckettq
+ */
+class BlobFile {
+
+    /** Identifies a blob file with a header. */
+    private static final int MAGIC = 0x47424c5a; // "GBLZ"
+    /** Length of the header. */
+    private static final int HEADER = 4 + 1 + 8;
+
+    /** Streams the contents of SOURCE into DEST, compressed with CODEC,
+     *  and returns the SHA-1 hash of the uncompressed contents.  If SOURCE
+     *  is at least CHUNKABOVE bytes long it is stored as a ChunkedBlob. */
+    static String copyAndHash(File source, File dest, Codec codec, long chunkAbove) {
+        if (!source.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        try (InputStream in = Files.newInputStream(source.toPath())) {
+            if (source.length() >= chunkAbove) {
+                return ChunkedBlob.write(in, dest, codec);
+            }
+            return write(in, dest, codec);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Writes CONTENTS to DEST, compressed with CODEC. */
+    static void write(byte[] contents, File dest, Codec codec) {
+        write(new ByteArrayInputStream(contents), dest, codec);
+    }
+
+    /** Streams IN into DEST, compressed with CODEC, returning the SHA-1
+     *  hash of the uncompressed bytes. */
+    private static String write(InputStream in, File dest, Codec codec) {
+        try (FileOutputStream file = new FileOutputStream(dest)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).put((byte) codec.id()).putLong(0);
+            file.write(header.array());
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            long size = 0;
+            OutputStream out = codec.compress(new NonClosing(file));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+                out.write(buffer, 0, n);
+                size += n;
+            }
+            out.close();
+            Metrics.count(Metrics.Counter.BYTES_HASHED, size);
+            // fill in the size now that it is known.
+            file.getChannel().write(ByteBuffer.allocate(8).putLong(0, size), 5);
+            return toHex(md.digest());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns the uncompressed contents of the blob file FILE. */
+    static byte[] read(File file) {
+        try (InputStream in = open(file)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Writes the uncompressed contents of the blob file BLOB to DEST,
+     *  creating or overwriting it.  Blobs without a header are copied with
+     *  FileChannel.transferTo. */
+    static void copy(File blob, File dest) {
+        if (magic(blob) == 0) {
+            try (FileChannel in = FileChannel.open(blob.toPath(), StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(dest.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long size = in.size();
+                for (long pos = 0; pos < size; ) {
+                    pos += in.transferTo(pos, size - pos, out);
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+            return;
+        }
+        try (InputStream in = open(blob);
+             OutputStream out = Files.newOutputStream(dest.toPath())) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Returns the uncompressed size of the blob file FILE. */
+    static long rawSize(File file) {
+        int magic = magic(file);
+        if (magic == 0) {
+            return file.length();
+        } else if (magic == ChunkedBlob.MAGIC) {
+            return ChunkedBlob.rawSize(file);
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+            in.skipNBytes(5);
+            return in.readLong();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Returns true if FILE is the manifest of a ChunkedBlob. */
+    static boolean isChunked(File file) {
+        return magic(file) == ChunkedBlob.MAGIC;
+    }
+
+    /** Returns a stream of the uncompressed contents of the blob file
+     *  FILE. */
+    static InputStream open(File file) throws IOException {
+        int magic = magic(file);
+        if (magic == ChunkedBlob.MAGIC) {
+            return ChunkedBlob.open(file);
+        }
+        InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()), BUFFER_SIZE);
+        if (magic == 0) {
+            return in;
+        }
+        DataInputStream data = new DataInputStream(in);
+        data.readInt();
+        int codec = data.readUnsignedByte();
+        data.readLong();
+        return Codec.forId(codec).decompress(in);
+    }
+
+    /** Returns MAGIC or ChunkedBlob.MAGIC if FILE starts with one of them
+     *  followed by a header that fits the file, and 0 if it is a blob
+     *  written without a header.  An uncompressed blob must be exactly as
+     *  long as its header says, a Deflate one must go on with a zlib
+     *  header and a manifest must be as long as its chunk count says, so
+     *  that a headerless blob that merely starts with a magic number is
+     *  not mistaken for one; migrate() gives such blobs a header. */
+    private static int magic(File file) {
+        long length = file.length();
+        if (length < HEADER) {
+            return 0;
+        }
+        byte[] start;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            start = in.readNBytes(HEADER + 3);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        ByteBuffer header = ByteBuffer.wrap(start);
+        int magic = header.getInt();
+        if (magic == MAGIC) {
+            int codec = header.get() & 0xff;
+            long size = header.getLong();
+            if (codec == Codec.NONE && length == HEADER + size) {
+                return MAGIC;
+            }
+            if (codec == Codec.DEFLATE && size >= 0 && header.remaining() >= 2) {
+                int zlib = (header.get() & 0xff) << 8 | header.get() & 0xff;
+                return (zlib & 0x0f00) == 0x0800 && zlib % 31 == 0 ? MAGIC : 0;
+            }
+        } else if (magic == ChunkedBlob.MAGIC && header.remaining() >= 12) {
+            long size = header.getLong();
+            int count = header.getInt();
+            if (size >= 0 && count >= 0 && length == ChunkedBlob.HEADER + (long) count * ChunkedBlob.ENTRY) {
+                return magic;
+            }
+        }
+        return 0;
+    }
+
+    /** Gives the loose blob FILE, whose contents are blob ID, an
+     *  uncompressed header if it was written without one, returning true
+     *  if it was.  A headerless blob is recognized by its bytes hashing to
+     *  ID, which cannot be told from a header alone.  The file is
+     *  rewritten under a temporary name and renamed over the old one, and
+     *  keeps its modification time so that gc judges its age as before. */
+    static boolean addHeader(File file, String id) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    md.update(buffer, 0, n);
+                }
+            }
+            if (!toHex(md.digest()).equals(id)) {
+                return false;
+            }
+            File tmp = File.createTempFile("blob-", ".tmp", file.getParentFile());
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                write(in, tmp, Codec.forId(Codec.NONE));
+                tmp.setLastModified(file.lastModified());
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tmp.delete();
+            }
+            return true;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Passes writes through to a stream without closing it, so a codec's
+     *  stream can be finished while the file stays open. */
+    private static class NonClosing extends FilterOutputStream {
+        NonClosing(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
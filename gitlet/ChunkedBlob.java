@@ -0,0 +1,278 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+
+import static gitlet.Repository.CHUNKS;
+import static gitlet.Utils.*;
+
+/** Blobs stored as a list of content-defined chunks, so that versions of a
+ *  large file share every chunk they have in common.
+ *
+ *  Chunk boundaries are found with FastCDC: a gear hash is rolled over the
+ *  contents and a chunk ends where its top bits are zero.  Boundaries
+ *  depend only on the bytes just before them, so an edit only changes the
+ *  chunks around it.  Cut points are never looked for in the first
+ *  MIN_CHUNK bytes of a chunk, a stricter mask is used before AVG_CHUNK
+ *  bytes and a looser one after, and a chunk is cut at MAX_CHUNK bytes
+ *  regardless.
+ *
+ *  A chunked blob is stored in BLOBS (or staged in the index) as a
+ *  manifest: a magic number, the total size, the number of chunks and the
+ *  20-byte id and length of each chunk in order.  The chunks themselves
+ *  are loose blob files in CHUNKS, named by the SHA-1 of their contents
+ *  and compressed with the configured codec.  The blob id is still the
+ *  SHA-1 of the whole contents.
+ *
+ *  Chunking is off unless CONFIG sets "chunking" to "fastcdc"; files of at
+ *  least "chunking.threshold" bytes (default 1 MiB) are then chunked.
+ *  @author beckettq
+ */
+class ChunkedBlob {
+
+    /** Identifies a manifest. */
+    static final int MAGIC = 0x4743484b; // "GCHK"
+    /** Lengths of the manifest's header (magic, size and chunk count) and
+     *  of each chunk's entry (id and length). */
+    static final int HEADER = 4 + 8 + 4;
+    static final int ENTRY = UID_LENGTH / 2 + 4;
+    /** Chunks are at least this long, except the last. */
+    private static final int MIN_CHUNK = 16 << 10;
+    /** The length around which chunk lengths are normalized. */
+    private static final int AVG_CHUNK = 64 << 10;
+    /** Chunks are at most this long. */
+    private static final int MAX_CHUNK = 256 << 10;
+    /** Cut masks before and after AVG_CHUNK bytes: two bits more and two
+     *  fewer than log2(AVG_CHUNK), in the top bits of the hash, which
+     *  depend on the last 64 bytes. */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+    private static final long MASK_LARGE = -1L << (64 - 14);
+    /** The default for chunking.threshold. */
+    private static final long DEFAULT_THRESHOLD = 1 << 20;
+
+    /** Random values for each byte, from a fixed SplitMix64 sequence so
+     *  that boundaries are the same everywhere. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long seed = 0x6769746c6574L;
+        for (int i = 0; i < GEAR.length; i += 1) {
+            seed += 0x9e3779b97f4a7c15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    /** Returns the size from which files are chunked, or Long.MAX_VALUE if
+     *  chunking is off. */
+    static long threshold() {
+        Properties config = Repository.config();
+        String mode = config.getProperty("chunking", "none").trim();
+        if (mode.equals("none")) {
+            return Long.MAX_VALUE;
+        } else if (!mode.equals("fastcdc")) {
+            throw error("Unknown chunking in config: %s.", mode);
+        }
+        String threshold = config.getProperty("chunking.threshold");
+        try {
+            return threshold == null ? DEFAULT_THRESHOLD : Long.parseLong(threshold.trim());
+        } catch (NumberFormatException e) {
+            throw error("Bad chunking.threshold in config: %s.", threshold);
+        }
+    }
+
+    /** Splits IN into chunks, storing each new one compressed with CODEC,
+     *  writes the manifest to DEST, and returns the SHA-1 hash of all of
+     *  IN. */
+    static String write(InputStream in, File dest, Codec codec) {
+        try {
+            MessageDigest whole = MessageDigest.getInstance("SHA-1");
+            ByteArrayOutputStream list = new ByteArrayOutputStream();
+            DataOutputStream entries = new DataOutputStream(list);
+            Chunker chunker = new Chunker(in);
+            long size = 0;
+            int count = 0;
+            for (int length = chunker.next(); length > 0; length = chunker.next()) {
+                byte[] chunk = Arrays.copyOfRange(chunker.buf, chunker.start, chunker.start + length);
+                whole.update(chunk);
+                byte[] id = MessageDigest.getInstance("SHA-1").digest(chunk);
+                store(toHex(id), chunk, codec);
+                entries.write(id);
+                entries.writeInt(length);
+                size += length;
+                count += 1;
+                // once for the whole blob and once for the chunk's id.
+                Metrics.count(Metrics.Counter.BYTES_HASHED, 2L * length);
+            }
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(dest))) {
+                out.writeInt(MAGIC);
+                out.writeLong(size);
+                out.writeInt(count);
+                list.writeTo(out);
+            }
+            return toHex(whole.digest());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Stores CHUNK as the chunk ID unless it is already stored.  The chunk
+     *  is written under a temporary name and renamed into place, so
+     *  threads storing the same chunk do not see each other's partial
+     *  files. */
+    private static void store(String id, byte[] chunk, Codec codec) throws IOException {
+        File file = ObjectStore.newLooseFile(CHUNKS, id);
+        if (file.exists()) {
+            return;
+        }
+        File tmp = File.createTempFile("chunk-", ".tmp", file.getParentFile());
+        BlobFile.write(chunk, tmp, codec);
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw error("Could not store chunk %s.", id);
+        }
+        Journal.written(file);
+    }
+
+    /** Returns the total size recorded in the manifest FILE. */
+    static long rawSize(File file) {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+            in.readInt();
+            return in.readLong();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Returns the ids of the chunks listed in the manifest FILE, in
+     *  order. */
+    static List<String> chunks(File file) {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            in.readInt();
+            in.readLong();
+            int count = in.readInt();
+            List<String> result = new ArrayList<>(count);
+            byte[] id = new byte[UID_LENGTH / 2];
+            for (int i = 0; i < count; i += 1) {
+                in.readFully(id);
+                in.readInt();
+                result.add(toHex(id));
+            }
+            return result;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Returns a stream of the contents of the blob whose manifest is FILE.
+     *  Each chunk is opened only when the stream reaches it. */
+    static InputStream open(File file) {
+        List<String> chunks = chunks(file);
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < chunks.size();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                String id = chunks.get(next);
+                next += 1;
+                File chunk = ObjectStore.looseFile(CHUNKS, id);
+                if (!chunk.exists()) {
+                    throw error("Missing chunk %s.", id);
+                }
+                try {
+                    return BlobFile.open(chunk);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException(e.getMessage());
+                }
+            }
+        });
+    }
+
+    /** Cuts a stream into chunks, holding at most two chunks' worth of it
+     *  in memory. */
+    private static class Chunker {
+        private final InputStream in;
+        /** Unread input is buf[start, limit). */
+        final byte[] buf = new byte[2 * MAX_CHUNK];
+        int start;
+        private int limit;
+        private boolean eof;
+        /** The length of the chunk last returned. */
+        private int lastLength;
+
+        Chunker(InputStream in) {
+            this.in = in;
+        }
+
+        /** Returns the length of the next chunk, which begins at
+         *  buf[start], or 0 at the end of the input. */
+        int next() throws IOException {
+            start += lastLength;
+            if (limit - start < MAX_CHUNK && !eof) {
+                System.arraycopy(buf, start, buf, 0, limit - start);
+                limit -= start;
+                start = 0;
+                while (limit < buf.length) {
+                    int n = in.read(buf, limit, buf.length - limit);
+                    if (n < 0) {
+                        eof = true;
+                        break;
+                    }
+                    limit += n;
+                }
+            }
+            lastLength = cut(start, limit - start);
+            return lastLength;
+        }
+
+        /** Returns the length of the chunk at buf[from], given that LENGTH
+         *  bytes are available there. */
+        private int cut(int from, int length) {
+            if (length <= MIN_CHUNK) {
+                return length;
+            }
+            int end = Math.min(length, MAX_CHUNK);
+            int normal = Math.min(end, AVG_CHUNK);
+            long hash = 0;
+            int i = MIN_CHUNK;
+            for (; i < normal; i += 1) {
+                hash = (hash << 1) + GEAR[buf[from + i] & 0xff];
+                if ((hash & MASK_SMALL) == 0) {
+                    return i + 1;
+                }
+            }
+            for (; i < end; i += 1) {
+                hash = (hash << 1) + GEAR[buf[from + i] & 0xff];
+                if ((hash & MASK_LARGE) == 0) {
+                    return i + 1;
+                }
+            }
+            return end;
+        }
+    }
+}
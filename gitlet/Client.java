@@ -0,0 +1,72 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+import static gitlet.Repository.SOCKET;
+
+/** A thin entry point that forwards its arguments to the gitlet daemon
+ *  serving the current directory, and runs the command itself when there
+ *  is no daemon.  Usage: java gitlet.Client ARGS, as for gitlet.Main.
+ *  @author beckettq
+ */
+public class Client {
+
+    public static void main(String[] args) {
+        if (!forward(args)) {
+            Main.main(args);
+        }
+    }
+
+    /** Sends ARGS to the daemon and copies its output to System.out.
+     *  Returns false if no daemon is listening. */
+    static boolean forward(String[] args) {
+        SocketChannel channel = connect();
+        if (channel == null) {
+            return false;
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            InputStream in = Channels.newInputStream(channel);
+            in.transferTo(System.out);
+            System.out.flush();
+            return true;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Returns true if a daemon is listening on SOCKET. */
+    static boolean isRunning() {
+        SocketChannel channel = connect();
+        if (channel == null) {
+            return false;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing to clean up.
+        }
+        return true;
+    }
+
+    private static SocketChannel connect() {
+        if (!SOCKET.exists()) {
+            return null;
+        }
+        try {
+            return SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
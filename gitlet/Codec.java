@@ -0,0 +1,135 @@
+package gitlet;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/** A compression codec for stored blobs.  Each codec has a number that is
+ *  recorded in the blobs it writes, so blobs written with any codec stay
+ *  readable whatever the repository is later configured to use.
+ *
+ *  The codec used for new blobs is set in CONFIG, a properties file, by
+ *  the "compression" key ("deflate" or "none") and, for Deflate, the
+ *  "compression.level" key (0 to 9).
+ *  @author beckettq
+ */
+interface Codec {
+
+    /** Codec number of uncompressed blobs. */
+    int NONE = 0;
+    /** Codec number of Deflate-compressed blobs. */
+    int DEFLATE = 1;
+
+    /** Returns the number recorded in blobs written by this codec. */
+    int id();
+
+    /** Returns a stream that compresses what is written to it into OUT. */
+    OutputStream compress(OutputStream out) throws IOException;
+
+    /** Returns a stream of the decompressed contents of IN. */
+    InputStream decompress(InputStream in) throws IOException;
+
+    /** Returns the codec with number ID. */
+    static Codec forId(int id) {
+        switch (id) {
+            case NONE:
+                return new Identity();
+            case DEFLATE:
+                return new Deflate(Deflater.DEFAULT_COMPRESSION);
+            default:
+                throw error("Unknown blob codec %d.", id);
+        }
+    }
+
+    /** Returns the codec configured for new blobs in this repository. */
+    static Codec configured() {
+        Properties config = Repository.config();
+        String name = config.getProperty("compression", "deflate").trim();
+        switch (name) {
+            case "none":
+                return new Identity();
+            case "deflate":
+                String level = config.getProperty("compression.level");
+                try {
+                    return new Deflate(level == null ? Deflater.DEFAULT_COMPRESSION : Integer.parseInt(level.trim()));
+                } catch (IllegalArgumentException e) {
+                    throw error("Bad compression.level in config: %s.", level);
+                }
+            default:
+                throw error("Unknown compression in config: %s.", name);
+        }
+    }
+
+    /** Stores blobs as they are. */
+    class Identity implements Codec {
+        @Override
+        public int id() {
+            return NONE;
+        }
+
+        @Override
+        public OutputStream compress(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) {
+            return in;
+        }
+    }
+
+    /** Compresses blobs with Deflate at a given level. */
+    class Deflate implements Codec {
+        private final int level;
+
+        Deflate(int level) {
+            if (level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9)) {
+                throw new IllegalArgumentException("level out of range");
+            }
+            this.level = level;
+        }
+
+        @Override
+        public int id() {
+            return DEFLATE;
+        }
+
+        @Override
+        public OutputStream compress(OutputStream out) {
+            Deflater deflater = new Deflater(level);
+            return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) {
+            Inflater inflater = new Inflater();
+            return new FilterInputStream(new InflaterInputStream(in, inflater, BUFFER_SIZE)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+    }
+}
@@ -1,5 +1,4 @@
 package gitlet;
-import static gitlet.Repository.COMMITS;
 import static gitlet.Utils.*;
 
 
@@ -14,6 +13,10 @@ import java.util.List;
  *  @author beckettq
  */
 public class Commit implements Serializable, Comparable<Commit> {
+
+    /** Pinned so that commits written by earlier versions stay readable. */
+    private static final long serialVersionUID = -8901506532145052547L;
+
     /**
      *
      * List all instance variables of the Commit class here with a useful
@@ -27,9 +30,14 @@ public class Commit implements Serializable, Comparable<Commit> {
     /** the parent commit*/
     public String parent;
 
-    /** the tree tracking all committed files */
+    /** every committed file, from path to blob id.  For commits stored
+     *  with a tree this is only filled in when first needed; use files(). */
     public HashMap<String, String> map;
 
+    /** the id of the tree of committed files, or null for older commits
+     *  that store MAP directly */
+    public String tree;
+
     /** Date of the commit */
     public Date date;
 
@@ -41,6 +49,9 @@ public class Commit implements Serializable, Comparable<Commit> {
 
     public String parent2;
 
+    /** the id of the commit, computed from its encoding when first needed */
+    private transient String id;
+
     public Commit(String message, String parent, Date date, HashMap<String, String> map, String branch) {
         this.message = message;
         this.parent = parent;
@@ -59,20 +70,74 @@ public class Commit implements Serializable, Comparable<Commit> {
         this.branch = branch;
     }
 
+    public Commit(String message, String parent, String parent2, Date date, String tree, String branch) {
+        this.message = message;
+        this.parent = parent;
+        this.parent2 = parent2;
+        this.date = date;
+        this.tree = tree;
+        this.branch = branch;
+    }
+
+    /** Returns every committed file, from path to blob id, flattening the
+     *  tree the first time.  Callers must not modify the result. */
+    public synchronized HashMap<String, String> files() {
+        if (map == null) {
+            map = tree == null ? new HashMap<>() : Tree.flatten(tree);
+        }
+        return map;
+    }
+
+    /** Returns the blob id of the file at PATH, or null if it is not
+     *  tracked, reading only the trees along PATH. */
+    public String fileId(String path) {
+        if (map != null || tree == null) {
+            return files().get(path);
+        }
+        return Tree.lookup(tree, path);
+    }
+
+    /** Returns the id of the tree of this commit, storing one built from
+     *  MAP for older commits. */
+    public String treeId() {
+        if (tree == null) {
+            return Tree.fromMap(files());
+        }
+        return tree;
+    }
+
     public static String getHash(Commit commit) {
-        byte[] byteArray = Utils.serialize(commit);
-        String hash = sha1(byteArray);
-        return hash;
+        return commit.getId();
+    }
+
+    /** Returns the id of this commit, hashing its encoding only once. */
+    public String getId() {
+        if (id == null) {
+            id = sha1(CommitCodec.encode(this));
+        }
+        return id;
+    }
+
+    /** Records that this commit is stored under ID. */
+    void setId(String id) {
+        this.id = id;
     }
+
     public String saveCommit(File directory) {
-        String hash = getHash(this);
-        File commitFile = join(directory, hash);
+        byte[] encoded = CommitCodec.encode(this);
+        String hash = sha1(encoded);
+        id = hash;
+        File commitFile = ObjectStore.newLooseFile(directory, hash);
         try {
             commitFile.createNewFile();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        writeObject(commitFile, this);
+        writeContents(commitFile, encoded);
+        Journal.written(commitFile);
+        CommitGraph.read().position(hash);
+        CommitIds.add(hash);
+        MessageIndex.add(hash, message);
         return hash;
     }
 
@@ -82,34 +147,33 @@ public class Commit implements Serializable, Comparable<Commit> {
 
     @Override
     public String toString() {
-        String s = String.format("===%ncommit %1$s%n%2$s%n%3$s%n%n", getHash(this), realDate(), message);
+        String s = String.format("===%ncommit %1$s%n%2$s%n%3$s%n%n", getId(), realDate(), message);
         return s;
     }
 
+    /** Returns this commit as one line of log --oneline: its abbreviated
+     *  id and the first line of its message. */
+    public String oneline() {
+        int end = message.indexOf('\n');
+        return getId().substring(0, 7) + " " + (end < 0 ? message : message.substring(0, end)) + "\n";
+    }
+
+    /** Returns the full id of the commit whose id starts with SHORTID, or
+     *  null if there is none.  Ambiguous ids are an error. */
     public static String findFullID(String shortID) {
-        List<String> commitList = Utils.plainFilenamesIn(COMMITS); //ordered
-        int min = 0;
-        int max = commitList.size() - 1;
-        while (max >= min) {
-            int middle = (min + max) / 2;
-            String midString = commitList.get(middle);
-            if (midString.startsWith(shortID)) {
-                return commitList.get(middle);
-            }
-            if (shortID.compareTo(midString) < 0) {
-                max = middle - 1;
-            } else {
-                min = middle + 1;
-            }
+        List<String> matches = CommitIds.matching(shortID);
+        if (matches.size() > 1) {
+            throw error("Commit id %s is ambiguous; it could be %s.", shortID,
+                        String.join(", ", matches));
         }
-        return null;
+        return matches.isEmpty() ? null : matches.get(0);
     }
 
     public Commit getParent() {
         if (parent == null) {
             return null;
         }
-        Commit parent = readObject(join(COMMITS, this.parent), Commit.class);
+        Commit parent = ObjectStore.readCommit(this.parent);
         return parent;
     }
 
@@ -117,12 +181,13 @@ public class Commit implements Serializable, Comparable<Commit> {
         if (parent2 == null) {
             return null;
         }
-        Commit parent2 = readObject(join(COMMITS, this.parent2), Commit.class);
+        Commit parent2 = ObjectStore.readCommit(this.parent2);
         return parent2;
     }
 
     public boolean isModified(String filename, Commit split) {
-        HashMap<String, String> splitMap = split.map;
+        HashMap<String, String> map = files();
+        HashMap<String, String> splitMap = split.files();
         if (!map.containsKey(filename) && !splitMap.containsKey(filename)) {
             return false;
         }
@@ -130,7 +195,7 @@ public class Commit implements Serializable, Comparable<Commit> {
             return true;
         } else if (!splitMap.containsKey(filename) && map.containsKey(filename)) {
             return true;
-        } else if (split.map.get(filename).equals(map.get(filename))) {
+        } else if (splitMap.get(filename).equals(map.get(filename))) {
             // unmodified
             return false;
         } else {
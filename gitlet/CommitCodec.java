@@ -0,0 +1,146 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** Encodes commits in gitlet's binary commit format.
+ *
+ *  An encoded commit is a magic number, a version byte, a byte saying which
+ *  parents are present, the 20-byte parent ids, the date in milliseconds,
+ *  the branch and message as length-prefixed UTF-8 strings, and finally the
+ *  20-byte id of the commit's tree.  The encoding of a commit is canonical,
+ *  so its SHA-1 hash is the commit's id.
+ *
+ *  Version 1 commits, written before trees, end instead with the number of
+ *  tracked files followed by each file name and 20-byte blob id in file
+ *  name order.  They are still decoded, and commits without a tree are
+ *  still encoded this way.
+ *
+ *  Commits written by older versions of gitlet are Java-serialized; these
+ *  are still decoded, and keep the ids under which they were stored.
+ *  @author beckettq
+ */
+class CommitCodec {
+
+    /** Identifies an encoded commit. */
+    private static final int MAGIC = 0x47434d54; // "GCMT"
+    /** The commit format version. */
+    private static final int VERSION = 2;
+    /** The version of commits that list their files instead of a tree. */
+    private static final int FLAT_VERSION = 1;
+    /** Bit set in the parents byte when there is a first parent. */
+    private static final int HAS_PARENT = 1;
+    /** Bit set in the parents byte when there is a second parent. */
+    private static final int HAS_PARENT2 = 2;
+
+    /** Returns the canonical encoding of COMMIT. */
+    static byte[] encode(Commit commit) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(commit.tree == null ? FLAT_VERSION : VERSION);
+            out.writeByte((commit.parent == null ? 0 : HAS_PARENT)
+                          | (commit.parent2 == null ? 0 : HAS_PARENT2));
+            if (commit.parent != null) {
+                out.write(fromHex(commit.parent));
+            }
+            if (commit.parent2 != null) {
+                out.write(fromHex(commit.parent2));
+            }
+            out.writeLong(commit.date.getTime());
+            writeString(out, commit.branch);
+            writeString(out, commit.message);
+            if (commit.tree != null) {
+                out.write(fromHex(commit.tree));
+                out.close();
+                return bytes.toByteArray();
+            }
+            TreeMap<String, String> files = new TreeMap<>(commit.map);
+            out.writeInt(files.size());
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                writeString(out, file.getKey());
+                out.write(fromHex(file.getValue()));
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw error("Internal error encoding commit.");
+        }
+    }
+
+    /** Returns the commit stored as BYTES under the id ID, in either the
+     *  binary or the older serialized format. */
+    static Commit decode(String id, byte[] bytes) {
+        Commit commit;
+        if (!isEncoded(bytes)) {
+            commit = deserialize(bytes, Commit.class);
+        } else {
+            commit = decodeBinary(bytes);
+        }
+        commit.setId(id);
+        return commit;
+    }
+
+    /** Returns true if BYTES are in the binary commit format. */
+    static boolean isEncoded(byte[] bytes) {
+        return bytes.length >= 4 && ((bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16
+                                     | (bytes[2] & 0xff) << 8 | (bytes[3] & 0xff)) == MAGIC;
+    }
+
+    private static Commit decodeBinary(byte[] bytes) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            in.readInt();
+            int version = in.readByte();
+            if (version != VERSION && version != FLAT_VERSION) {
+                throw error("Unknown commit format version.");
+            }
+            int parents = in.readByte();
+            String parent = (parents & HAS_PARENT) == 0 ? null : readId(in);
+            String parent2 = (parents & HAS_PARENT2) == 0 ? null : readId(in);
+            Date date = new Date(in.readLong());
+            String branch = readString(in);
+            String message = readString(in);
+            if (version == VERSION) {
+                return new Commit(message, parent, parent2, date, readId(in), branch);
+            }
+            int count = in.readInt();
+            HashMap<String, String> map = new HashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i += 1) {
+                map.put(readString(in), readId(in));
+            }
+            return new Commit(message, parent, parent2, date, map, branch);
+        } catch (IOException e) {
+            throw error("Corrupt commit.");
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String readId(DataInputStream in) throws IOException {
+        byte[] id = new byte[UID_LENGTH / 2];
+        in.readFully(id);
+        return toHex(id);
+    }
+}
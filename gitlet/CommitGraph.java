@@ -0,0 +1,284 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+import static gitlet.Repository.GRAPH;
+import static gitlet.Utils.*;
+
+/** The commit graph: every commit's parents, date and generation number in
+ *  compact arrays, so that ancestry questions never deserialize commits.
+ *
+ *  The file is a magic number and version followed by fixed-size records
+ *  appended in topological order: the 20-byte commit id, the record
+ *  numbers of the first and second parents (-1 if absent), the commit
+ *  date in milliseconds, and the generation number (one more than the
+ *  largest generation of the parents; the initial commit has generation
+ *  1).  Commits that are missing from the file are added on demand.  A
+ *  partial record left at the end by an interrupted append is ignored and
+ *  overwritten by the next append.
+ *  @author beckettq
+ */
+class CommitGraph {
+
+    /** Identifies a commit-graph file. */
+    private static final int MAGIC = 0x47434752; // "GCGR"
+    /** The commit-graph format version. */
+    private static final int VERSION = 1;
+    /** Length of the header. */
+    private static final int HEADER = 8;
+    /** Length of a commit id in bytes. */
+    private static final int ID_BYTES = 20;
+    /** Length of one record. */
+    private static final int RECORD = ID_BYTES + 4 + 4 + 8 + 4;
+
+    /** Commit ids by record number. */
+    private final ArrayList<String> ids = new ArrayList<>();
+    /** Record numbers by commit id. */
+    private final HashMap<String, Integer> positions = new HashMap<>();
+    /** Parent record numbers, dates and generations by record number. */
+    private int[] parent1 = new int[16];
+    private int[] parent2 = new int[16];
+    private long[] dates = new long[16];
+    private int[] generations = new int[16];
+
+    /** The graph last read by this process, and the inode of GRAPH then. */
+    private static CommitGraph cached;
+    private static long cachedInode;
+
+    /** Returns the commit graph of the current repository.  The graph of a
+     *  previous call is reused, reading only the records appended since. */
+    static CommitGraph read() {
+        long[] stat = Index.stat(GRAPH);
+        if (stat == null) {
+            CommitGraph graph = new CommitGraph();
+            graph.writeHeader();
+            remember(graph);
+            for (String id : ObjectStore.commitIds()) {
+                graph.position(id);
+            }
+            return graph;
+        }
+        if (cached == null || cachedInode != stat[2]
+            || HEADER + (long) cached.ids.size() * RECORD > stat[0]) {
+            remember(new CommitGraph());
+        }
+        cached.load();
+        return cached;
+    }
+
+    private static void remember(CommitGraph graph) {
+        cached = graph;
+        cachedInode = Index.stat(GRAPH)[2];
+    }
+
+    /** Reads the records of GRAPH that this graph does not have yet. */
+    private void load() {
+        try (RandomAccessFile raf = new RandomAccessFile(GRAPH, "r")) {
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                throw error("Corrupt commit-graph file.");
+            }
+            int count = (buf.limit() - HEADER) / RECORD;
+            buf.position(HEADER + ids.size() * RECORD);
+            byte[] id = new byte[ID_BYTES];
+            for (int i = ids.size(); i < count; i += 1) {
+                buf.get(id);
+                put(toHex(id), buf.getInt(), buf.getInt(), buf.getLong(), buf.getInt());
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    private void writeHeader() {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(GRAPH))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    private int put(String id, int p1, int p2, long date, int generation) {
+        int n = ids.size();
+        if (n == parent1.length) {
+            parent1 = Arrays.copyOf(parent1, 2 * n);
+            parent2 = Arrays.copyOf(parent2, 2 * n);
+            dates = Arrays.copyOf(dates, 2 * n);
+            generations = Arrays.copyOf(generations, 2 * n);
+        }
+        ids.add(id);
+        positions.put(id, n);
+        parent1[n] = p1;
+        parent2[n] = p2;
+        dates[n] = date;
+        generations[n] = generation;
+        return n;
+    }
+
+    /** Returns the record number of the commit ID, adding it (and any of its
+     *  ancestors that are missing) to the graph file if necessary. */
+    int position(String id) {
+        Integer known = positions.get(id);
+        if (known != null) {
+            return known;
+        }
+        // add missing ancestors first, without recursing once per commit.
+        ArrayDeque<String> pending = new ArrayDeque<>();
+        int added = 0;
+        pending.push(id);
+        HashMap<String, Commit> loaded = new HashMap<>();
+        while (!pending.isEmpty()) {
+            String next = pending.peek();
+            if (positions.containsKey(next)) {
+                pending.pop();
+                continue;
+            }
+            Commit commit = loaded.computeIfAbsent(next, ObjectStore::readCommit);
+            boolean ready = true;
+            for (String parent : new String[] {commit.parent, commit.parent2}) {
+                if (parent != null && !positions.containsKey(parent)) {
+                    pending.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                pending.pop();
+                add(next, commit);
+                added += 1;
+            }
+        }
+        append(added);
+        return positions.get(id);
+    }
+
+    /** Adds COMMIT, whose parents are already in the graph, with id ID. */
+    private void add(String id, Commit commit) {
+        int p1 = commit.parent == null ? -1 : positions.get(commit.parent);
+        int p2 = commit.parent2 == null ? -1 : positions.get(commit.parent2);
+        int generation = 1 + Math.max(p1 < 0 ? 0 : generations[p1], p2 < 0 ? 0 : generations[p2]);
+        put(id, p1, p2, commit.date.getTime(), generation);
+    }
+
+    /** Appends the last COUNT records to the graph file, just after the
+     *  records before them, so that a partial record is overwritten. */
+    private void append(int count) {
+        if (count == 0) {
+            return;
+        }
+        int first = ids.size() - count;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(count * RECORD);
+        try (DataOutputStream out = new DataOutputStream(bytes);
+             RandomAccessFile raf = new RandomAccessFile(GRAPH, "rw")) {
+            for (int i = first; i < ids.size(); i += 1) {
+                out.write(fromHex(ids.get(i)));
+                out.writeInt(parent1[i]);
+                out.writeInt(parent2[i]);
+                out.writeLong(dates[i]);
+                out.writeInt(generations[i]);
+            }
+            raf.setLength(HEADER + (long) first * RECORD);
+            raf.seek(raf.length());
+            raf.write(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Returns the id of the commit at record POS. */
+    String id(int pos) {
+        return ids.get(pos);
+    }
+
+    /** Returns the record number of the first parent of POS, or -1. */
+    int parent(int pos) {
+        return parent1[pos];
+    }
+
+    /** Returns the record number of the second parent of POS, or -1. */
+    int parent2(int pos) {
+        return parent2[pos];
+    }
+
+    /** Returns the date of the commit at POS in milliseconds. */
+    long date(int pos) {
+        return dates[pos];
+    }
+
+    /** Returns the generation number of the commit at POS. */
+    int generation(int pos) {
+        return generations[pos];
+    }
+
+    /** Returns the id of a best common ancestor of the commits A and B: a
+     *  common ancestor that is not an ancestor of any other common
+     *  ancestor.  Returns null if they share no history. */
+    String mergeBase(String a, String b) {
+        int start1 = position(a);
+        int start2 = position(b);
+        byte[] flags = new byte[ids.size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) ->
+            generations[x] != generations[y] ? Integer.compare(generations[y], generations[x])
+                : Long.compare(dates[y], dates[x]));
+        flags[start1] |= 1;
+        flags[start2] |= 2;
+        queue.add(start1);
+        if (start2 != start1) {
+            queue.add(start2);
+        }
+        // a commit is only visited after all its descendants in the walk,
+        // so the first one reached from both sides has the highest generation.
+        while (!queue.isEmpty()) {
+            int pos = queue.poll();
+            if (flags[pos] == 3) {
+                return ids.get(pos);
+            }
+            for (int parent : new int[] {parent1[pos], parent2[pos]}) {
+                if (parent >= 0 && (flags[parent] | flags[pos]) != flags[parent]) {
+                    if (flags[parent] == 0) {
+                        queue.add(parent);
+                    }
+                    flags[parent] |= flags[pos];
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Returns true if the commit ANCESTOR is reachable from the commit ID. */
+    boolean isAncestor(String ancestor, String id) {
+        int target = position(ancestor);
+        int start = position(id);
+        int floor = generations[target];
+        boolean[] seen = new boolean[ids.size()];
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            if (pos == target) {
+                return true;
+            }
+            if (seen[pos] || generations[pos] <= floor) {
+                continue;
+            }
+            seen[pos] = true;
+            for (int parent : new int[] {parent1[pos], parent2[pos]}) {
+                if (parent >= 0) {
+                    stack.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+}
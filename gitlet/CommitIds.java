@@ -0,0 +1,157 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Repository.IDS;
+import static gitlet.Utils.*;
+
+/** A table of every commit id, for resolving abbreviated ids without
+ *  listing the object store.
+ *
+ *  The file is a magic number, a version and the number of sorted ids,
+ *  followed by that many 20-byte ids in sorted order and then a short tail
+ *  of ids appended, unsorted, as commits are made.  The sorted part is
+ *  memory mapped and binary searched; the tail is scanned.  Once the tail
+ *  grows past MAX_TAIL ids the table is rewritten fully sorted.
+ *  @author beckettq
+ */
+class CommitIds {
+
+    /** Identifies a commit id table. */
+    private static final int MAGIC = 0x47434944; // "GCID"
+    /** The table format version. */
+    private static final int VERSION = 1;
+    /** Length of the header. */
+    private static final int HEADER = 12;
+    /** Length of a commit id in bytes. */
+    private static final int ID_BYTES = 20;
+    /** The most ids kept in the unsorted tail. */
+    private static final int MAX_TAIL = 256;
+
+    /** Records the new commit ID in the table, building the table from the
+     *  object store if there is none. */
+    static void add(String id) {
+        if (!IDS.exists()) {
+            write(ObjectStore.commitIds());
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(IDS, true))) {
+            out.write(fromHex(id));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(IDS, "r")) {
+            raf.seek(8);
+            long sorted = raf.readInt();
+            if ((raf.length() - HEADER) / ID_BYTES - sorted > MAX_TAIL) {
+                write(matching(""));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Rewrites the table with exactly IDS, sorted. */
+    private static void write(Collection<String> ids) {
+        File tmp;
+        try {
+            tmp = File.createTempFile("commit-ids.", ".tmp", GITLET_DIR);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        TreeSet<String> sorted = new TreeSet<>(ids);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.size());
+            for (String id : sorted) {
+                out.write(fromHex(id));
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), IDS.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tmp.delete();
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Returns the ids of all commits starting with the hex string PREFIX,
+     *  in sorted order. */
+    static List<String> matching(String prefix) {
+        if (!IDS.exists()) {
+            write(ObjectStore.commitIds());
+        }
+        prefix = prefix.toLowerCase();
+        TreeSet<String> result = new TreeSet<>();
+        try (RandomAccessFile raf = new RandomAccessFile(IDS, "r")) {
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                throw error("Corrupt commit id table.");
+            }
+            int sorted = buf.getInt();
+            int total = (buf.limit() - HEADER) / ID_BYTES;
+            byte[] id = new byte[ID_BYTES];
+            // find the first sorted id not less than PREFIX.
+            int lo = 0;
+            int hi = sorted;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                buf.get(HEADER + mid * ID_BYTES, id);
+                if (compare(id, prefix) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int i = lo; i < sorted; i += 1) {
+                buf.get(HEADER + i * ID_BYTES, id);
+                if (compare(id, prefix) != 0) {
+                    break;
+                }
+                result.add(toHex(id));
+            }
+            for (int i = sorted; i < total; i += 1) {
+                buf.get(HEADER + i * ID_BYTES, id);
+                if (compare(id, prefix) == 0) {
+                    result.add(toHex(id));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Compares the first PREFIX.length() hex digits of ID with PREFIX,
+     *  returning 0 if ID starts with PREFIX. */
+    private static int compare(byte[] id, String prefix) {
+        for (int i = 0; i < prefix.length() && i < 2 * ID_BYTES; i += 1) {
+            int digit = (id[i / 2] >> (i % 2 == 0 ? 4 : 0)) & 0xf;
+            int other = Character.digit(prefix.charAt(i), 16);
+            if (digit != other) {
+                return digit - other;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,84 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Repository.SOCKET;
+
+/** A long-running gitlet process that serves commands for the repository
+ *  in its working directory over a Unix domain socket, so that the JVM,
+ *  the loaded classes and the object cache stay warm between commands.
+ *
+ *  A request is the argument count followed by each argument as a
+ *  modified-UTF-8 string; the response is the command's output, after
+ *  which the server closes the connection.  Commands run one at a time.
+ *  State read from disk is cached with stamps taken from the files it
+ *  came from, so changes made by other processes are noticed.
+ *  @author beckettq
+ */
+class Daemon {
+
+    /** Set when a client has asked the daemon to stop. */
+    private static boolean stopping;
+
+    /** Serves commands until asked to stop. */
+    static void serve() {
+        if (SOCKET.exists() && Client.isRunning()) {
+            System.out.println("A gitlet daemon is already running.");
+            return;
+        }
+        SOCKET.delete();
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            SOCKET.deleteOnExit();
+            while (!stopping && GITLET_DIR.isDirectory()) {
+                try (SocketChannel client = server.accept()) {
+                    handle(client);
+                } catch (IOException e) {
+                    // the client went away; keep serving the others.
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /** Reads one command from CLIENT, runs it and sends back its output. */
+    private static void handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        OutputStream out = Channels.newOutputStream(client);
+        PrintStream stdout = System.out;
+        PrintStream response = new PrintStream(out, false, "UTF-8");
+        System.setOut(response);
+        try {
+            if (args.length > 0 && args[0].equals("daemon")) {
+                if (args.length == 2 && args[1].equals("stop")) {
+                    stopping = true;
+                } else {
+                    System.out.println("A gitlet daemon is already running.");
+                }
+            } else {
+                Main.main(args);
+            }
+        } catch (RuntimeException e) {
+            System.out.println(e.getMessage() == null ? e.toString() : e.getMessage());
+        } finally {
+            response.flush();
+            System.setOut(stdout);
+        }
+    }
+}
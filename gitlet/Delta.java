@@ -0,0 +1,137 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+/** Computes and applies binary deltas between two versions of a blob.
+ *  A delta is a header holding the base and result lengths followed by a
+ *  sequence of COPY (offset, length into the base) and INSERT (literal
+ *  bytes) instructions.  All integers are unsigned varints.
+ *  @author beckettq
+ */
+class Delta {
+
+    /** Size of the blocks of the base that are indexed for matching. */
+    private static final int BLOCK = 16;
+
+    /** Opcode for copying a run of bytes out of the base. */
+    private static final int COPY = 1;
+
+    /** Opcode for inserting literal bytes. */
+    private static final int INSERT = 0;
+
+    /** Returns a delta that turns BASE into TARGET. */
+    static byte[] encode(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(blockHash(base, i), i);
+        }
+        int literalStart = 0;
+        int pos = 0;
+        while (pos + BLOCK <= target.length) {
+            Integer match = blocks.get(blockHash(target, pos));
+            if (match == null || !regionEquals(base, match, target, pos, BLOCK)) {
+                pos += 1;
+                continue;
+            }
+            int length = BLOCK;
+            while (match + length < base.length && pos + length < target.length
+                    && base[match + length] == target[pos + length]) {
+                length += 1;
+            }
+            int start = match;
+            while (start > 0 && pos > literalStart && base[start - 1] == target[pos - 1]) {
+                start -= 1;
+                pos -= 1;
+                length += 1;
+            }
+            writeInsert(out, target, literalStart, pos);
+            out.write(COPY);
+            writeVarint(out, start);
+            writeVarint(out, length);
+            pos += length;
+            literalStart = pos;
+        }
+        writeInsert(out, target, literalStart, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        int baseLength = readVarint(delta, pos);
+        if (baseLength != base.length) {
+            throw Utils.error("Delta base has the wrong length.");
+        }
+        byte[] result = new byte[readVarint(delta, pos)];
+        int written = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++];
+            if (op == COPY) {
+                int offset = readVarint(delta, pos);
+                int length = readVarint(delta, pos);
+                System.arraycopy(base, offset, result, written, length);
+                written += length;
+            } else {
+                int length = readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], result, written, length);
+                pos[0] += length;
+                written += length;
+            }
+        }
+        if (written != result.length) {
+            throw Utils.error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int from, int to) {
+        if (to <= from) {
+            return;
+        }
+        out.write(INSERT);
+        writeVarint(out, to - from);
+        out.write(data, from, to - from);
+    }
+
+    private static int blockHash(byte[] data, int from) {
+        int h = 0;
+        for (int i = from; i < from + BLOCK; i += 1) {
+            h = 31 * h + data[i];
+        }
+        return h;
+    }
+
+    private static boolean regionEquals(byte[] a, int aFrom, byte[] b, int bFrom, int length) {
+        for (int i = 0; i < length; i += 1) {
+            if (a[aFrom + i] != b[bFrom + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] data, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            int b = data[pos[0]++] & 0xff;
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Line diffs between files, using Myers' O(ND) algorithm in its
+ *  linear-space form: each step finds the middle snake of the shortest
+ *  edit script and recurses on the two halves, so memory stays
+ *  proportional to the length of the files however much they differ.
+ *
+ *  Lines are compared by number: every distinct line of the files being
+ *  compared is given one integer, so the diff itself never touches the
+ *  file contents.  The contents may be memory-mapped files; besides them,
+ *  a diff keeps a few integers per line.  Common leading and trailing
+ *  lines are stripped before searching, which makes the usual case of a
+ *  small edit to a large file linear.
+ *  @author beckettq
+ */
+class Diff {
+
+    /** The lines of one file, as offsets into its contents. */
+    static class Lines {
+        /** The file contents, which may be a mapped file. */
+        final ByteBuffer contents;
+        /** Line i is contents[starts[i], starts[i + 1]), including any line
+         *  terminator. */
+        final int[] starts;
+        /** The number of each line; equal lines have equal numbers. */
+        int[] ids;
+
+        Lines(ByteBuffer contents) {
+            this.contents = contents;
+            int length = contents.limit();
+            int count = 0;
+            for (int i = 0; i < length; i += 1) {
+                if (contents.get(i) == '\n') {
+                    count += 1;
+                }
+            }
+            if (length > 0 && contents.get(length - 1) != '\n') {
+                count += 1;
+            }
+            starts = new int[count + 1];
+            int line = 1;
+            for (int i = 0; i < length && line < count; i += 1) {
+                if (contents.get(i) == '\n') {
+                    starts[line] = i + 1;
+                    line += 1;
+                }
+            }
+            starts[count] = length;
+        }
+
+        /** Returns the number of lines. */
+        int size() {
+            return starts.length - 1;
+        }
+
+        /** Returns line I, without copying it. */
+        ByteBuffer line(int i) {
+            return contents.slice(starts[i], starts[i + 1] - starts[i]);
+        }
+
+        private int hash(int i) {
+            int h = 1;
+            for (int k = starts[i]; k < starts[i + 1]; k += 1) {
+                h = 31 * h + contents.get(k);
+            }
+            return h;
+        }
+    }
+
+    /** Splits each of CONTENTS into lines, numbering the lines so that
+     *  equal lines in any of them get equal numbers.  Lines are hashed and
+     *  compared where they lie, so no copy of any line is made. */
+    static List<Lines> split(ByteBuffer... contents) {
+        List<Lines> result = new ArrayList<>();
+        int total = 0;
+        for (ByteBuffer file : contents) {
+            Lines lines = new Lines(file);
+            lines.ids = new int[lines.size()];
+            result.add(lines);
+            total += lines.size();
+        }
+        // an open-addressing table from line hashes to line numbers, with
+        // the first line given each number as its representative.
+        int[] slots = new int[Integer.highestOneBit(Math.max(1, total)) * 4];
+        Arrays.fill(slots, -1);
+        Lines[] firstIn = new Lines[total];
+        int[] firstAt = new int[total];
+        int numbers = 0;
+        for (Lines lines : result) {
+            for (int i = 0; i < lines.size(); i += 1) {
+                int slot = lines.hash(i) & (slots.length - 1);
+                while (slots[slot] >= 0
+                       && !firstIn[slots[slot]].line(firstAt[slots[slot]]).equals(lines.line(i))) {
+                    slot = (slot + 1) & (slots.length - 1);
+                }
+                if (slots[slot] < 0) {
+                    slots[slot] = numbers;
+                    firstIn[numbers] = lines;
+                    firstAt[numbers] = i;
+                    numbers += 1;
+                }
+                lines.ids[i] = slots[slot];
+            }
+        }
+        return result;
+    }
+
+    /** Returns, for each line of A, the index of the line of B it is
+     *  matched with by a shortest edit script from A to B, or -1 if it is
+     *  deleted.  Matched indices increase along A. */
+    static int[] match(int[] a, int[] b) {
+        int[] matches = new int[a.length];
+        Arrays.fill(matches, -1);
+        match(a, 0, a.length, b, 0, b.length, matches);
+        return matches;
+    }
+
+    private static void match(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi, int[] matches) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            matches[aLo] = bLo;
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+            matches[aHi] = bHi;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        // with common ends stripped at least two edits remain, so both
+        // halves around the middle snake are strictly smaller.
+        int[] snake = middleSnake(a, aLo, aHi, b, bLo, bHi);
+        match(a, aLo, snake[0], b, bLo, snake[1], matches);
+        for (int x = snake[0], y = snake[1]; x < snake[2]; x += 1, y += 1) {
+            matches[x] = y;
+        }
+        match(a, snake[2], aHi, b, snake[3], bHi, matches);
+    }
+
+    /** Returns the start and end points {x0, y0, x1, y1} of the middle
+     *  snake of a shortest edit script from A[ALO, AHI) to B[BLO, BHI). */
+    private static int[] middleSnake(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        int offset = max + 1;
+        // forward[k] and backward[k] are the furthest x reached on diagonal
+        // k = x - y, measuring backward paths from the far corner.
+        int[] forward = new int[2 * max + 3];
+        int[] backward = new int[2 * max + 3];
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        for (int d = 0; d <= max; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])) {
+                    x = forward[offset + k + 1];
+                } else {
+                    x = forward[offset + k - 1] + 1;
+                }
+                int x0 = x;
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                int back = delta - k;
+                if (odd && back >= -(d - 1) && back <= d - 1 && x + backward[offset + back] >= n) {
+                    return new int[] {aLo + x0, bLo + x0 - k, aLo + x, bLo + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])) {
+                    x = backward[offset + k + 1];
+                } else {
+                    x = backward[offset + k - 1] + 1;
+                }
+                int x0 = x;
+                int y = x - k;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + k] = x;
+                int front = delta - k;
+                if (!odd && front >= -d && front <= d && x + forward[offset + front] >= n) {
+                    return new int[] {aHi - x, bHi - y, aHi - x0, bHi - (x0 - k)};
+                }
+            }
+        }
+        throw Utils.error("Internal error computing diff.");
+    }
+}
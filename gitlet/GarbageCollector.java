@@ -0,0 +1,259 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static gitlet.Repository.BLOBS;
+import static gitlet.Repository.CHUNKS;
+import static gitlet.Repository.COMMITS;
+import static gitlet.Repository.GRAPH;
+import static gitlet.Repository.IDS;
+import static gitlet.Repository.INDEX;
+import static gitlet.Repository.MESSAGES;
+import static gitlet.Repository.PACKS;
+import static gitlet.Repository.TREES;
+import static gitlet.Utils.*;
+
+/** Deletes objects that no branch can reach, and staged copies that the
+ *  index no longer names.
+ *
+ *  Marking walks the history of every branch head on its own thread; the
+ *  reachable sets are shared, so a walk stops as soon as it meets a commit
+ *  or tree another walk has already claimed.  Sweeping only deletes what
+ *  has been unreachable for longer than a grace period, judged by the
+ *  modification time of the loose file or pack, so that objects written
+ *  by a command still running elsewhere survive.  Whatever such a young
+ *  commit or tree reaches is marked before sweeping, so that an object is
+ *  never deleted while something that survives still needs it.
+ *  Unreachable objects in a pack are dropped by rewriting the packs
+ *  without them.
+ *  @author beckettq
+ */
+class GarbageCollector {
+
+    /** Reachable commits, trees and blobs. */
+    private final Set<String> commits = ConcurrentHashMap.newKeySet();
+    private final Set<String> trees = ConcurrentHashMap.newKeySet();
+    private final Set<String> blobs = ConcurrentHashMap.newKeySet();
+    /** Files last modified before this time (in milliseconds) are old
+     *  enough to delete. */
+    private final long cutoff;
+
+    /** The number of commits, trees, blobs, chunks and staged files
+     *  removed. */
+    int removedCommits;
+    int removedTrees;
+    int removedBlobs;
+    int removedChunks;
+    int removedStaged;
+
+    /** A collector that spares anything modified within the last GRACE
+     *  milliseconds. */
+    GarbageCollector(long grace) {
+        cutoff = System.currentTimeMillis() - grace;
+    }
+
+    /** Marks everything reachable from the commits ROOTS, in parallel, and
+     *  the blobs STAGED. */
+    void mark(Collection<String> roots, Collection<String> staged) {
+        markAll(roots, List.of());
+        blobs.addAll(staged);
+    }
+
+    /** Marks the histories of the commits ROOTS and the trees TREEROOTS,
+     *  each on its own thread. */
+    private void markAll(Collection<String> roots, Collection<String> treeRoots) {
+        List<Callable<Void>> walks = new ArrayList<>();
+        for (String root : new HashSet<>(roots)) {
+            walks.add(() -> {
+                markHistory(root);
+                return null;
+            });
+        }
+        for (String root : new HashSet<>(treeRoots)) {
+            walks.add(() -> {
+                markTree(root);
+                return null;
+            });
+        }
+        inParallel(walks);
+    }
+
+    /** Marks everything reachable from the commits and trees that are
+     *  unreachable but too young to delete: loose ones modified after the
+     *  cutoff and those in packs written after it. */
+    private void markYoung() {
+        List<String> young = new ArrayList<>();
+        List<String> youngTrees = new ArrayList<>();
+        addYoung(COMMITS, commits, young);
+        addYoung(TREES, trees, youngTrees);
+        for (Pack pack : Pack.all()) {
+            if (pack.lastModified() >= cutoff) {
+                young.addAll(pack.ids(Pack.COMMIT));
+                youngTrees.addAll(pack.ids(Pack.TREE));
+            }
+        }
+        markAll(young, youngTrees);
+    }
+
+    /** Adds the loose objects in DIR that are not in REACHABLE and were
+     *  modified after the cutoff to YOUNG. */
+    private void addYoung(File dir, Set<String> reachable, List<String> young) {
+        for (String id : ObjectStore.looseIds(dir)) {
+            if (id.length() == UID_LENGTH && !reachable.contains(id)
+                && ObjectStore.looseFile(dir, id).lastModified() >= cutoff) {
+                young.add(id);
+            }
+        }
+    }
+
+    private void markHistory(String root) {
+        ArrayDeque<String> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            String id = pending.pop();
+            if (!commits.add(id)) {
+                continue;
+            }
+            Commit commit = ObjectStore.readCommit(id);
+            if (commit.tree != null) {
+                markTree(commit.tree);
+            } else {
+                blobs.addAll(commit.files().values());
+            }
+            if (commit.parent != null) {
+                pending.push(commit.parent);
+            }
+            if (commit.parent2 != null) {
+                pending.push(commit.parent2);
+            }
+        }
+    }
+
+    private void markTree(String id) {
+        if (!trees.add(id)) {
+            return;
+        }
+        Tree tree = ObjectStore.readTree(id);
+        for (String blob : tree.blobs()) {
+            blobs.add(blob);
+        }
+        for (String subtree : tree.subtrees()) {
+            markTree(subtree);
+        }
+    }
+
+    /** Deletes the unreachable objects and the staged copies not in
+     *  STAGED that are older than the grace period, and then the chunks
+     *  that no remaining chunked blob lists.  Everything the surviving
+     *  young objects reach is marked first.  If any commit goes,
+     *  the commit-graph, commit-id table and message index are deleted so
+     *  that they are rebuilt from the remaining commits when next used. */
+    void sweep(Collection<String> staged) {
+        markYoung();
+        removedCommits = sweepLoose(COMMITS, commits);
+        removedTrees = sweepLoose(TREES, trees);
+        removedBlobs = sweepLoose(BLOBS, blobs);
+
+        HashSet<String> expired = new HashSet<>();
+        for (Pack pack : Pack.all()) {
+            if (pack.lastModified() >= cutoff) {
+                continue;
+            }
+            removedCommits += collect(pack.ids(Pack.COMMIT), commits, expired);
+            removedTrees += collect(pack.ids(Pack.TREE), trees, expired);
+            removedBlobs += collect(pack.ids(Pack.BLOB), blobs, expired);
+        }
+        if (!expired.isEmpty()) {
+            ObjectStore.repack(id -> !expired.contains(id));
+        }
+
+        HashSet<String> keep = new HashSet<>(staged);
+        for (File file : INDEX.listFiles()) {
+            String name = file.getName();
+            boolean copy = name.length() == UID_LENGTH && !keep.contains(name);
+            boolean scratch = name.startsWith("add-") && name.endsWith(".tmp");
+            if ((copy || scratch) && file.lastModified() < cutoff && file.delete()) {
+                removedStaged += 1;
+            }
+        }
+
+        HashSet<String> chunks = new HashSet<>();
+        for (String id : ObjectStore.looseIds(BLOBS)) {
+            addChunks(ObjectStore.looseFile(BLOBS, id), chunks);
+        }
+        for (File file : INDEX.listFiles()) {
+            addChunks(file, chunks);
+        }
+        removedChunks = sweepLoose(CHUNKS, chunks);
+
+        if (removedCommits > 0) {
+            GRAPH.delete();
+            IDS.delete();
+            MESSAGES.delete();
+        }
+    }
+
+    /** Deletes the expired loose objects in DIR that are not in REACHABLE,
+     *  returning how many were deleted. */
+    private int sweepLoose(File dir, Set<String> reachable) {
+        int removed = 0;
+        for (String id : ObjectStore.looseIds(dir)) {
+            if (id.length() != UID_LENGTH || reachable.contains(id)) {
+                continue;
+            }
+            if (ObjectStore.looseFile(dir, id).lastModified() < cutoff) {
+                ObjectStore.deleteLoose(dir, id);
+                removed += 1;
+            }
+        }
+        return removed;
+    }
+
+    /** Adds the chunks of FILE to CHUNKS if it is a chunked blob. */
+    private static void addChunks(File file, Set<String> chunks) {
+        if (file.isFile() && BlobFile.isChunked(file)) {
+            chunks.addAll(ChunkedBlob.chunks(file));
+        }
+    }
+
+    /** Adds the ids in IDS that are not in REACHABLE to EXPIRED, returning
+     *  how many were new. */
+    private static int collect(List<String> ids, Set<String> reachable, Set<String> expired) {
+        int added = 0;
+        for (String id : ids) {
+            if (!reachable.contains(id) && expired.add(id)) {
+                added += 1;
+            }
+        }
+        return added;
+    }
+
+    /** Returns the number of bytes taken by objects, chunks, packs and
+     *  staged copies. */
+    static long storedSize() {
+        long total = 0;
+        for (File dir : new File[] {COMMITS, TREES, BLOBS, CHUNKS, PACKS, INDEX}) {
+            if (!dir.isDirectory()) {
+                continue;
+            }
+            try (Stream<Path> walk = Files.walk(dir.toPath())) {
+                total += walk.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,376 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Repository.INDEX;
+import static gitlet.Repository.INDEXFILE;
+import static gitlet.Repository.INDEXMAP;
+import static gitlet.Repository.RMSET;
+import static gitlet.Utils.*;
+
+/** The staging area, kept in a versioned binary file.
+ *
+ *  The file holds a magic number, a version, an entry count and then the
+ *  entries sorted by path.  Each entry is the path (a length-prefixed UTF-8
+ *  string) followed by fixed-size fields: the 20-byte blob id, the size,
+ *  modification time and inode of the working file when it was last
+ *  hashed, and a flags byte saying whether the path is staged for addition
+ *  or for removal.  Entries with no flags set only cache the stat data of
+ *  a file whose contents are known, so that unchanged files need not be
+ *  hashed again.
+ *
+ *  The file is memory mapped for reading.  When a command only changes the
+ *  fixed-size fields of existing entries they are patched in place;
+ *  otherwise the file is rewritten.  Both go through the Journal, so the
+ *  index changes together with the rest of the command.
+ *  @author beckettq
+ */
+class Index {
+
+    /** Entry flag: the path is staged for addition. */
+    static final int STAGED = 1;
+    /** Entry flag: the path is staged for removal. */
+    static final int REMOVED = 2;
+
+    /** Identifies an index file. */
+    private static final int MAGIC = 0x47494458; // "GIDX"
+    /** The index format version. */
+    private static final int VERSION = 1;
+    /** Length of a blob id in bytes. */
+    private static final int ID_BYTES = 20;
+    /** Length of the fixed-size fields of an entry. */
+    private static final int FIXED = ID_BYTES + 8 + 8 + 8 + 1;
+    /** Files modified this recently (in nanoseconds) are not trusted to
+     *  show a new modification time if they change again. */
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /** One path in the index. */
+    static class Entry {
+        /** The blob id of the contents. */
+        String id;
+        /** Stat data of the working file when it had contents ID. */
+        long size;
+        long mtime;
+        long inode;
+        /** STAGED and REMOVED bits. */
+        int flags;
+        /** Offset of the fixed-size fields in the index file, or -1 if this
+         *  entry is not yet on disk. */
+        int position = -1;
+        /** True if this entry has changed since it was read. */
+        boolean dirty;
+    }
+
+    /** Entries by path, in sorted order. */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+    /** True if entries have been added or deleted since reading. */
+    private boolean structureChanged;
+    /** The stamp of INDEXFILE when this index was read or last written. */
+    private long stamp;
+
+    /** The last index read or written by this process, and the stamp of
+     *  INDEXFILE at that time. */
+    private static Index cached;
+    private static long cachedStamp;
+
+    /** Returns the index of the current repository. */
+    static Index read() {
+        long stamp = ObjectCache.stamp(INDEXFILE);
+        if (cached != null && stamp == cachedStamp && !cached.isModified()) {
+            return cached;
+        }
+        Index index = new Index();
+        if (!INDEXFILE.exists()) {
+            index.readLegacy();
+            return index;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(INDEXFILE, "r")) {
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                throw error("Corrupt index file.");
+            }
+            int count = buf.getInt();
+            for (int i = 0; i < count; i += 1) {
+                byte[] path = new byte[buf.getShort() & 0xffff];
+                buf.get(path);
+                Entry entry = new Entry();
+                entry.position = buf.position();
+                byte[] id = new byte[ID_BYTES];
+                buf.get(id);
+                entry.id = toHex(id);
+                entry.size = buf.getLong();
+                entry.mtime = buf.getLong();
+                entry.inode = buf.getLong();
+                entry.flags = buf.get();
+                index.entries.put(new String(path, StandardCharsets.UTF_8), entry);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        index.stamp = stamp;
+        cached = index;
+        cachedStamp = stamp;
+        return index;
+    }
+
+    /** Returns true if this index has changes that are not yet on disk. */
+    private boolean isModified() {
+        if (structureChanged) {
+            return true;
+        }
+        for (Entry entry : entries.values()) {
+            if (entry.dirty) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Loads the serialized INDEXMAP and RMSET of an older repository. */
+    @SuppressWarnings("unchecked")
+    private void readLegacy() {
+        structureChanged = true;
+        if (INDEXMAP.exists()) {
+            HashMap<String, String> iMap = readObject(INDEXMAP, HashMap.class);
+            for (Map.Entry<String, String> staged : iMap.entrySet()) {
+                stage(staged.getKey(), staged.getValue(), null);
+            }
+        }
+        if (RMSET.exists()) {
+            for (String removed : (HashSet<String>) readObject(RMSET, HashSet.class)) {
+                markRemoved(removed);
+            }
+        }
+    }
+
+    /** Saves any changes to disk, through the journal of the running
+     *  command. */
+    void write() {
+        if (!isModified()) {
+            return;
+        }
+        // entries can only be patched in place in the file they were read from.
+        if (structureChanged || ObjectCache.stamp(INDEXFILE) != stamp) {
+            Journal.publish(INDEXFILE, encode());
+            structureChanged = false;
+            Journal.afterCommit(() -> {
+                INDEXMAP.delete();
+                RMSET.delete();
+            });
+            remember();
+            return;
+        }
+        for (Entry entry : entries.values()) {
+            if (entry.dirty) {
+                ByteBuffer fixed = ByteBuffer.allocate(FIXED);
+                fixed.put(idBytes(entry.id));
+                fixed.putLong(entry.size).putLong(entry.mtime).putLong(entry.inode);
+                fixed.put((byte) entry.flags);
+                Journal.patch(INDEXFILE, entry.position, fixed.array());
+                entry.dirty = false;
+            }
+        }
+        remember();
+    }
+
+    /** Makes this the cached index. */
+    private void remember() {
+        stamp = ObjectCache.stamp(INDEXFILE);
+        cached = this;
+        cachedStamp = stamp;
+    }
+
+    /** Returns the contents of an index file holding these entries, and
+     *  records where each entry's fixed-size fields are in it. */
+    private byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            int position = 12;
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                byte[] path = e.getKey().getBytes(StandardCharsets.UTF_8);
+                Entry entry = e.getValue();
+                out.writeShort(path.length);
+                out.write(path);
+                position += 2 + path.length;
+                out.write(idBytes(entry.id));
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.inode);
+                out.writeByte(entry.flags);
+                entry.position = position;
+                entry.dirty = false;
+                position += FIXED;
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    private static byte[] idBytes(String id) {
+        return id == null ? new byte[ID_BYTES] : fromHex(id);
+    }
+
+    /** Returns the entry for PATH, creating it if necessary. */
+    private Entry entry(String path) {
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            entry = new Entry();
+            entry.size = -1;
+            entries.put(path, entry);
+            structureChanged = true;
+        }
+        entry.dirty = true;
+        return entry;
+    }
+
+    /** Returns the staged additions, from path to blob id, in path order. */
+    TreeMap<String, String> staged() {
+        TreeMap<String, String> result = new TreeMap<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if ((e.getValue().flags & STAGED) != 0) {
+                result.put(e.getKey(), e.getValue().id);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the paths staged for removal, in order. */
+    TreeSet<String> removed() {
+        TreeSet<String> result = new TreeSet<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if ((e.getValue().flags & REMOVED) != 0) {
+                result.add(e.getKey());
+            }
+        }
+        return result;
+    }
+
+    /** Returns true if nothing is staged for addition or removal. */
+    boolean isClean() {
+        for (Entry entry : entries.values()) {
+            if (entry.flags != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Stages PATH for addition with contents ID, read from FILE (which
+     *  may be null if its stat data is unknown). */
+    void stage(String path, String id, File file) {
+        Entry entry = entry(path);
+        entry.flags = STAGED;
+        setStat(entry, id, file);
+    }
+
+    /** Unstages PATH, leaving any cached stat data. */
+    void unstage(String path) {
+        Entry entry = entries.get(path);
+        if (entry != null && entry.flags != 0) {
+            entry.flags = 0;
+            entry.dirty = true;
+        }
+    }
+
+    /** Stages PATH for removal. */
+    void markRemoved(String path) {
+        Entry entry = entry(path);
+        entry.flags = REMOVED;
+        entry.id = null;
+        entry.size = -1;
+    }
+
+    /** Records that FILE, at PATH, currently has contents ID. */
+    void record(String path, String id, File file) {
+        Entry entry = entries.get(path);
+        if (entry != null && entry.flags != 0) {
+            return;
+        }
+        setStat(entry(path), id, file);
+    }
+
+    /** Returns the blob id of FILE, at PATH, if its stat data shows that it
+     *  has not changed since it was last hashed, and otherwise null. */
+    String cachedId(String path, File file) {
+        Entry entry = entries.get(path);
+        if (entry == null || entry.id == null || entry.size < 0) {
+            return null;
+        }
+        long[] stat = stat(file);
+        if (stat == null || stat[0] != entry.size || stat[1] != entry.mtime || stat[2] != entry.inode) {
+            return null;
+        }
+        return entry.id;
+    }
+
+    /** Empties the staging area after a commit or reset.  Staged entries
+     *  keep their stat data; removals are dropped. */
+    void clearStaging() {
+        for (String path : removed()) {
+            entries.remove(path);
+            structureChanged = true;
+        }
+        for (Entry entry : entries.values()) {
+            if (entry.flags != 0) {
+                entry.flags = 0;
+                entry.dirty = true;
+            }
+        }
+    }
+
+    private static void setStat(Entry entry, String id, File file) {
+        entry.id = id;
+        long[] stat = file == null ? null : stat(file);
+        if (stat == null || System.currentTimeMillis() * 1000000 - stat[1] < RACY_NANOS) {
+            // too recently modified to be trusted: force a rehash next time.
+            entry.size = -1;
+            entry.mtime = 0;
+            entry.inode = 0;
+        } else {
+            entry.size = stat[0];
+            entry.mtime = stat[1];
+            entry.inode = stat[2];
+        }
+    }
+
+    /** Returns the size, modification time in nanoseconds and inode number
+     *  of FILE, or null if it does not exist. */
+    static long[] stat(File file) {
+        Path path = file.toPath();
+        try {
+            long size = Files.size(path);
+            long mtime = Files.getLastModifiedTime(path).to(TimeUnit.NANOSECONDS);
+            long inode = 0;
+            try {
+                inode = ((Number) Files.getAttribute(path, "unix:ino")).longValue();
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                // no inode numbers on this platform.
+            }
+            return new long[] {size, mtime, inode};
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Repository.INDEX;
+import static gitlet.Repository.JOURNAL;
+import static gitlet.Utils.*;
+
+/** Groups the metadata updates of one command so that they reach the disk
+ *  together or not at all, with one round of fsyncs.
+ *
+ *  While a command runs, new versions of files such as REPO and the index
+ *  are written to temporary files and in-place changes to the index are
+ *  only recorded.  When the command finishes, commit() makes every object
+ *  file the command wrote and every temporary file durable, appends one
+ *  checksummed record listing the renames and patches to JOURNAL and syncs
+ *  it: that is the point at which the command has happened.  The renames
+ *  and patches are then applied and the journal emptied.  If gitlet stops
+ *  before the record is complete, the temporary files are discarded on the
+ *  next run; if it stops after, the record is replayed.  Both are safe to
+ *  repeat.
+ *
+ *  Outside a command (for example when Repository is used directly) each
+ *  update is published on its own with a synced temporary file and an
+ *  atomic rename.
+ *
+ *  Processes running at once share JOURNAL, so a record is written and
+ *  applied under the journal lock; a record found while holding that lock
+ *  was left by a process that stopped.  Temporary files are only taken
+ *  for leftovers when no other command holds any lock of the repository.
+ *  @author beckettq
+ */
+class Journal {
+
+    /** Identifies a journal record. */
+    private static final int MAGIC = 0x474a4e4c; // "GJNL"
+    /** Record operation: rename a temporary file over its target. */
+    private static final int RENAME = 1;
+    /** Record operation: write bytes into a file at an offset. */
+    private static final int PATCH = 2;
+    /** Suffix of temporary files awaiting publication. */
+    private static final String TMP_SUFFIX = ".journal";
+
+    /** One pending update of a file. */
+    private static class Op {
+        final File target;
+        /** The temporary file holding the new contents, for renames. */
+        File tmp;
+        /** The new contents, for renames, or the patched bytes. */
+        byte[] bytes;
+        /** The offset of a patch. */
+        long offset;
+
+        Op(File target) {
+            this.target = target;
+        }
+    }
+
+    /** The journal of the running command, or null if none is open. */
+    private static Journal current;
+
+    /** Pending updates, in order. */
+    private final List<Op> ops = new ArrayList<>();
+    /** Pending renames by target, so that rewriting a file replaces them. */
+    private final LinkedHashMap<File, Op> renames = new LinkedHashMap<>();
+    /** Files written by this command that must be durable before it is. */
+    private final LinkedHashSet<File> written = new LinkedHashSet<>();
+    /** Actions to run once the updates are applied. */
+    private final List<Runnable> after = new ArrayList<>();
+
+    /** Starts grouping updates until commit() or abort(). */
+    static synchronized void begin() {
+        current = new Journal();
+    }
+
+    /** Makes all updates since begin() durable and applies them. */
+    static synchronized void commit() {
+        Journal journal = current;
+        current = null;
+        if (journal != null) {
+            journal.apply();
+        }
+    }
+
+    /** Discards any updates since begin() that have not been committed. */
+    static synchronized void abort() {
+        Journal journal = current;
+        current = null;
+        if (journal != null) {
+            for (Op op : journal.ops) {
+                if (op.tmp != null) {
+                    op.tmp.delete();
+                }
+            }
+        }
+    }
+
+    /** Replaces the contents of TARGET with CONTENTS when the running
+     *  command commits, or at once if there is none. */
+    static synchronized void publish(File target, byte[] contents) {
+        Journal journal = current == null ? new Journal() : current;
+        Op op = journal.renames.remove(target);
+        if (op != null) {
+            journal.ops.remove(op);
+            op.tmp.delete();
+        }
+        op = new Op(target);
+        op.bytes = contents;
+        try {
+            op.tmp = File.createTempFile(target.getName() + ".", TMP_SUFFIX, target.getParentFile());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        writeContents(op.tmp, contents);
+        journal.ops.add(op);
+        journal.renames.put(target, op);
+        if (journal != current) {
+            journal.apply();
+        }
+    }
+
+    /** Writes BYTES into TARGET at OFFSET when the running command commits,
+     *  or at once if there is none. */
+    static synchronized void patch(File target, long offset, byte[] bytes) {
+        Journal journal = current == null ? new Journal() : current;
+        Op op = new Op(target);
+        op.offset = offset;
+        op.bytes = bytes;
+        journal.ops.add(op);
+        if (journal != current) {
+            journal.apply();
+        }
+    }
+
+    /** Returns the contents that TARGET will have when the running command
+     *  commits, or null if it is not being replaced. */
+    static synchronized byte[] pending(File target) {
+        if (current == null) {
+            return null;
+        }
+        Op op = current.renames.get(target);
+        return op == null ? null : op.bytes;
+    }
+
+    /** Records that FILE was written and must be durable before the running
+     *  command's updates are published. */
+    static synchronized void written(File file) {
+        if (current == null) {
+            force(file);
+        } else {
+            current.written.add(file);
+        }
+    }
+
+    /** Runs ACTION once the running command's updates are applied, or at
+     *  once if there is none. */
+    static synchronized void afterCommit(Runnable action) {
+        if (current == null) {
+            action.run();
+        } else {
+            current.after.add(action);
+        }
+    }
+
+    /** Makes every file written so far durable, without publishing any
+     *  updates. */
+    static synchronized void sync() {
+        if (current != null) {
+            current.syncWritten();
+        }
+    }
+
+    private void syncWritten() {
+        LinkedHashSet<File> dirs = new LinkedHashSet<>();
+        for (File file : written) {
+            force(file);
+            dirs.add(file.getParentFile());
+        }
+        for (File dir : dirs) {
+            force(dir);
+        }
+        written.clear();
+    }
+
+    /** Makes this journal's files durable, records its updates, and applies
+     *  them. */
+    private void apply() {
+        for (Op op : ops) {
+            if (op.tmp != null) {
+                written.add(op.tmp);
+            }
+        }
+        syncWritten();
+        // a lone rename is atomic by itself and needs no record.
+        boolean logged = ops.size() > 1 || (ops.size() == 1 && ops.get(0).tmp == null);
+        FileLock lock = logged ? Locks.journal() : null;
+        try {
+            if (logged) {
+                replay();
+                writeRecord();
+            }
+            applyAll(ops);
+            if (logged) {
+                JOURNAL.delete();
+            }
+        } finally {
+            if (lock != null) {
+                Locks.close(lock);
+            }
+        }
+        for (Runnable action : after) {
+            action.run();
+        }
+    }
+
+    private void writeRecord() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(ops.size());
+            for (Op op : ops) {
+                out.writeByte(op.tmp != null ? RENAME : PATCH);
+                out.writeUTF(relative(op.target));
+                if (op.tmp != null) {
+                    out.writeUTF(relative(op.tmp));
+                } else {
+                    out.writeLong(op.offset);
+                    out.writeInt(op.bytes.length);
+                    out.write(op.bytes);
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+            try (FileOutputStream file = new FileOutputStream(JOURNAL)) {
+                file.write(bytes.toByteArray());
+                file.getFD().sync();
+            }
+            force(GITLET_DIR);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Applies OPS, then makes every patched file and every directory
+     *  holding a renamed one durable, each once.  Each patched file is
+     *  opened once for all of its patches.  Applying OPS again has no
+     *  further effect. */
+    private static void applyAll(List<Op> ops) {
+        LinkedHashMap<File, RandomAccessFile> patched = new LinkedHashMap<>();
+        LinkedHashSet<File> dirs = new LinkedHashSet<>();
+        try {
+            for (Op op : ops) {
+                if (op.tmp != null) {
+                    // later patches must go to the new file, not the old one.
+                    RandomAccessFile old = patched.remove(op.target);
+                    if (old != null) {
+                        old.getFD().sync();
+                        old.close();
+                    }
+                    if (op.tmp.exists()) {
+                        Files.move(op.tmp.toPath(), op.target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                                   StandardCopyOption.ATOMIC_MOVE);
+                    }
+                    dirs.add(op.target.getParentFile());
+                    continue;
+                }
+                RandomAccessFile raf = patched.get(op.target);
+                if (raf == null) {
+                    raf = new RandomAccessFile(op.target, "rw");
+                    patched.put(op.target, raf);
+                }
+                raf.seek(op.offset);
+                raf.write(op.bytes);
+            }
+            for (RandomAccessFile raf : patched.values()) {
+                raf.getFD().sync();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } finally {
+            for (RandomAccessFile raf : patched.values()) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // already synced, or failing anyway.
+                }
+            }
+        }
+        for (File dir : dirs) {
+            force(dir);
+        }
+    }
+
+    /** Finishes or rolls back the updates of a command that stopped
+     *  part way, if any.  Called before every command.  The temporary files
+     *  of a command that stopped before writing its record are only
+     *  deleted if no other command is running, since they cannot be told
+     *  from those of a command still going. */
+    static void recover() {
+        if (!GITLET_DIR.isDirectory()) {
+            return;
+        }
+        if (JOURNAL.exists()) {
+            FileLock lock = Locks.journal();
+            try {
+                replay();
+            } finally {
+                Locks.close(lock);
+            }
+        }
+        if (!Locks.tryAll()) {
+            return;
+        }
+        try {
+            for (File dir : new File[] {GITLET_DIR, INDEX}) {
+                File[] leftovers = dir.listFiles((d, name) -> name.endsWith(TMP_SUFFIX));
+                if (leftovers != null) {
+                    for (File leftover : leftovers) {
+                        leftover.delete();
+                    }
+                }
+            }
+        } finally {
+            Locks.release();
+        }
+    }
+
+    /** Applies the record in JOURNAL, if there is a complete one, and
+     *  deletes it.  Must be called with the journal lock held. */
+    private static void replay() {
+        if (!JOURNAL.exists()) {
+            return;
+        }
+        byte[] record = readContents(JOURNAL);
+        List<Op> ops = parse(record);
+        if (ops != null) {
+            applyAll(ops);
+        }
+        JOURNAL.delete();
+    }
+
+    /** Returns the updates recorded in RECORD, or null if it is incomplete
+     *  or damaged. */
+    private static List<Op> parse(byte[] record) {
+        if (record.length < 16) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length - 8);
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            in.skipNBytes(record.length - 8);
+            if (in.readLong() != crc.getValue()) {
+                return null;
+            }
+            in = new DataInputStream(new ByteArrayInputStream(record, 0, record.length - 8));
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            List<Op> ops = new ArrayList<>();
+            for (int count = in.readInt(); count > 0; count -= 1) {
+                int kind = in.readByte();
+                Op op = new Op(join(GITLET_DIR, in.readUTF()));
+                if (kind == RENAME) {
+                    op.tmp = join(GITLET_DIR, in.readUTF());
+                } else {
+                    op.offset = in.readLong();
+                    op.bytes = new byte[in.readInt()];
+                    in.readFully(op.bytes);
+                }
+                ops.add(op);
+            }
+            return ops;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String relative(File file) {
+        return GITLET_DIR.toPath().relativize(file.toPath()).toString();
+    }
+
+    /** Flushes FILE, which may be a directory, to disk. */
+    private static void force(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // some platforms cannot sync directories; the rename is still atomic.
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static gitlet.Utils.BUFFER_SIZE;
+
+/** Three-way merges of file contents, line by line.
+ *
+ *  Both sides are diffed against the common ancestor.  Runs of ancestor
+ *  lines that both sides kept unchanged split the files into chunks; a
+ *  chunk changed on only one side takes that side's lines, a chunk changed
+ *  the same way on both sides takes either, and only a chunk changed
+ *  differently on both sides is a conflict, written between the usual
+ *  markers.  The result is written out as it is worked out, so it is
+ *  never held in memory.
+ *  @author beckettq
+ */
+class LineMerge {
+
+    private static final byte[] HEAD_MARKER = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END_MARKER = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Writes the merge of HEAD and OTHER, two versions of the file whose
+     *  common ancestor is BASE, to OUT, and returns true if any chunk
+     *  conflicted.  A missing version is passed as an empty buffer. */
+    static boolean merge(ByteBuffer base, ByteBuffer head, ByteBuffer other, OutputStream out)
+        throws IOException {
+        List<Diff.Lines> lines = Diff.split(base, head, other);
+        Diff.Lines b = lines.get(0);
+        Diff.Lines h = lines.get(1);
+        Diff.Lines o = lines.get(2);
+        int[] toHead = Diff.match(b.ids, h.ids);
+        int[] toOther = Diff.match(b.ids, o.ids);
+
+        boolean conflict = false;
+        int i = 0;
+        int hi = 0;
+        int oi = 0;
+        while (i < b.size() || hi < h.size() || oi < o.size()) {
+            int kept = i;
+            while (kept < b.size() && toHead[kept] == hi + kept - i && toOther[kept] == oi + kept - i) {
+                kept += 1;
+            }
+            if (kept > i) {
+                write(out, b, i, kept);
+                hi += kept - i;
+                oi += kept - i;
+                i = kept;
+                continue;
+            }
+            // the chunk runs to the next ancestor line kept by both sides.
+            int next = i;
+            while (next < b.size() && (toHead[next] < 0 || toOther[next] < 0)) {
+                next += 1;
+            }
+            int hEnd = next < b.size() ? toHead[next] : h.size();
+            int oEnd = next < b.size() ? toOther[next] : o.size();
+            boolean headChanged = !same(b, i, next, h, hi, hEnd);
+            boolean otherChanged = !same(b, i, next, o, oi, oEnd);
+            if (!headChanged) {
+                write(out, o, oi, oEnd);
+            } else if (!otherChanged || same(h, hi, hEnd, o, oi, oEnd)) {
+                write(out, h, hi, hEnd);
+            } else {
+                conflict = true;
+                out.write(HEAD_MARKER);
+                write(out, h, hi, hEnd);
+                out.write(SEPARATOR);
+                write(out, o, oi, oEnd);
+                out.write(END_MARKER);
+            }
+            i = next;
+            hi = hEnd;
+            oi = oEnd;
+        }
+        return conflict;
+    }
+
+    /** Returns true if lines [XLO, XHI) of X equal lines [YLO, YHI) of Y. */
+    private static boolean same(Diff.Lines x, int xLo, int xHi, Diff.Lines y, int yLo, int yHi) {
+        if (xHi - xLo != yHi - yLo) {
+            return false;
+        }
+        for (int k = 0; k < xHi - xLo; k += 1) {
+            if (x.ids[xLo + k] != y.ids[yLo + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes lines [FROM, TO) of LINES to OUT, a buffer at a time. */
+    private static void write(OutputStream out, Diff.Lines lines, int from, int to) throws IOException {
+        ByteBuffer range = lines.contents.slice(lines.starts[from], lines.starts[to] - lines.starts[from]);
+        if (range.hasArray()) {
+            out.write(range.array(), range.arrayOffset(), range.remaining());
+            return;
+        }
+        byte[] buffer = new byte[Math.min(BUFFER_SIZE, range.remaining())];
+        while (range.hasRemaining()) {
+            int n = Math.min(buffer.length, range.remaining());
+            range.get(buffer, 0, n);
+            out.write(buffer, 0, n);
+        }
+    }
+}
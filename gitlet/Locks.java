@@ -0,0 +1,192 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Repository.LOCKS;
+
+/** Reader/writer locks that let several gitlet processes share one
+ *  repository.
+ *
+ *  The repository's state is split into areas, each guarded by a lock
+ *  file in LOCKS: the refs (REPO, with the commit-graph, commit-id table
+ *  and message index derived from the history), the index (the staging
+ *  area, its staged copies and the working-tree snapshot) and the object
+ *  store.  A command takes a shared lock on each area it only reads and an
+ *  exclusive lock on each area it changes, always in that order, and holds
+ *  them until its updates are published.  Storing a new object does not
+ *  need an exclusive lock, since objects are named by their contents and
+ *  never change; only commands that delete or rewrite objects do.
+ *
+ *  The commit-graph, commit-id table and message index are rebuilt by
+ *  whichever command first reads one of them after it goes missing, so a
+ *  command that only reads the refs takes them with takeReading(), which
+ *  locks them exclusively instead if the file it reads is missing once
+ *  the lock is held.  They are only deleted under an exclusive lock (by
+ *  gc), so a file present under a shared lock stays present.
+ *
+ *  Locks are FileChannel locks, so they are released by the operating
+ *  system if the process dies.  The time spent waiting for them is
+ *  recorded by Metrics.
+ *  @author beckettq
+ */
+class Locks {
+
+    /** The areas of a repository that are locked separately, in the order
+     *  in which they are locked. */
+    enum Area {
+        REFS("refs"), INDEX("index"), OBJECTS("objects");
+
+        /** The name of the lock file. */
+        final String file;
+
+        Area(String file) {
+            this.file = file;
+        }
+    }
+
+    /** How a command uses an area. */
+    enum Mode {
+        NONE, SHARED, EXCLUSIVE
+    }
+
+    /** Name of the lock held while a journal record is written and
+     *  applied. */
+    private static final String JOURNAL = "journal";
+
+    /** The locks held by the running command. */
+    private static final List<FileLock> HELD = new ArrayList<>();
+
+    /** Locks the refs, index and object store as REFS, INDEX and OBJECTS
+     *  say, waiting for other processes as needed.  Does nothing outside a
+     *  repository. */
+    static synchronized void take(Mode refs, Mode index, Mode objects) {
+        if (!GITLET_DIR.isDirectory()) {
+            return;
+        }
+        Mode[] modes = {refs, index, objects};
+        for (Area area : Area.values()) {
+            Mode mode = modes[area.ordinal()];
+            if (mode != Mode.NONE) {
+                HELD.add(lock(area.file, mode == Mode.SHARED));
+            }
+        }
+    }
+
+    /** Locks the refs shared, or exclusively if DERIVED, a file derived
+     *  from the history, is missing and so will be rebuilt, and then the
+     *  index and object store as INDEX and OBJECTS say. */
+    static synchronized void takeReading(File derived, Mode index, Mode objects) {
+        if (!GITLET_DIR.isDirectory()) {
+            return;
+        }
+        FileLock refs = lock(Area.REFS.file, true);
+        if (!derived.exists()) {
+            // no other lock is held yet, so waiting here cannot deadlock.
+            close(refs);
+            refs = lock(Area.REFS.file, false);
+        }
+        HELD.add(refs);
+        take(Mode.NONE, index, objects);
+    }
+
+    /** Releases every lock taken by take() or tryAll(). */
+    static synchronized void release() {
+        for (FileLock lock : HELD) {
+            close(lock);
+        }
+        HELD.clear();
+    }
+
+    /** Locks every area exclusively if no other process holds any of them,
+     *  returning false without waiting otherwise. */
+    static synchronized boolean tryAll() {
+        if (!GITLET_DIR.isDirectory()) {
+            return false;
+        }
+        for (Area area : Area.values()) {
+            FileLock lock = tryLock(area.file);
+            if (lock == null) {
+                release();
+                return false;
+            }
+            HELD.add(lock);
+        }
+        return true;
+    }
+
+    /** Returns the lock on the journal record, waiting for any other
+     *  process writing or applying one. */
+    static FileLock journal() {
+        return lock(JOURNAL, false);
+    }
+
+    /** Releases LOCK and closes its file. */
+    static void close(FileLock lock) {
+        try {
+            lock.channel().close();
+        } catch (IOException e) {
+            // closing the channel releases the lock regardless.
+        }
+    }
+
+    /** Returns a lock on the lock file NAME, shared if SHARED.  A wait for
+     *  another process is counted and timed as a phase. */
+    @SuppressWarnings("try")
+    private static FileLock lock(String name, boolean shared) {
+        FileChannel channel = open(name);
+        try {
+            FileLock lock = channel.tryLock(0, Long.MAX_VALUE, shared);
+            if (lock == null) {
+                Metrics.count(Metrics.Counter.LOCK_WAITS);
+                try (Metrics.Phase phase = Metrics.phase("wait for " + name + " lock")) {
+                    lock = channel.lock(0, Long.MAX_VALUE, shared);
+                }
+            }
+            return lock;
+        } catch (IOException e) {
+            closeChannel(channel);
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Returns an exclusive lock on the lock file NAME, or null if another
+     *  process holds a lock on it. */
+    private static FileLock tryLock(String name) {
+        FileChannel channel = open(name);
+        try {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                closeChannel(channel);
+            }
+            return lock;
+        } catch (IOException e) {
+            closeChannel(channel);
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    private static FileChannel open(String name) {
+        LOCKS.mkdir();
+        try {
+            return FileChannel.open(new File(LOCKS, name).toPath(), StandardOpenOption.CREATE,
+                                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    private static void closeChannel(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing more to release.
+        }
+    }
+}
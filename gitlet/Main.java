@@ -1,6 +1,15 @@
 package gitlet;
 
 import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+
+import static gitlet.Locks.Mode.EXCLUSIVE;
+import static gitlet.Locks.Mode.NONE;
+import static gitlet.Locks.Mode.SHARED;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author TODO
@@ -19,15 +28,166 @@ public class Main {
         return true;
     }
 
-    /** Usage: java gitlet.Main ARGS, where ARGS contains
+    /** Usage: java gitlet.Main [--stats] ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
+     *  With --stats, the time spent in each phase of the command and the
+     *  I/O it did are printed after its output.
      */
+    @SuppressWarnings("try")
     public static void main(String[] args) {
+        boolean stats = args.length > 0 && args[0].equals("--stats");
+        if (stats) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
         // TODO: what if args is empty?
         if (args.length == 0) {
             System.out.println("Please enter a command.");
             return;
         }
+        Metrics.start(args[0]);
+        try {
+            try (Metrics.Phase phase = Metrics.phase("recover")) {
+                Journal.recover();
+            }
+            lock(args);
+            Journal.begin();
+            run(args);
+            try (Metrics.Phase phase = Metrics.phase("publish")) {
+                Journal.commit();
+            }
+        } catch (GitletException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            Journal.abort();
+            Locks.release();
+            Metrics.finish(stats);
+        }
+    }
+
+    /** Takes the locks the command ARGS needs on the refs, the index and
+     *  the object store: shared on those it only reads and exclusive on
+     *  those it changes.  Long-running commands lock nothing themselves;
+     *  the commands a daemon runs for its clients take their own locks. */
+    private static void lock(String[] args) {
+        switch (args[0]) {
+            case "log":
+            case "global-log":
+            case "stats":
+                Locks.take(SHARED, NONE, SHARED);
+                break;
+            case "find":
+                Locks.takeReading(Repository.MESSAGES, NONE, SHARED);
+                break;
+            case "status":
+            case "add":
+            case "rm":
+                Locks.take(SHARED, EXCLUSIVE, SHARED);
+                break;
+            case "checkout":
+                if (args.length == 2) {
+                    Locks.take(EXCLUSIVE, EXCLUSIVE, SHARED);
+                } else {
+                    // a commit id may be abbreviated.
+                    Locks.takeReading(Repository.IDS, SHARED, SHARED);
+                }
+                break;
+            case "commit":
+            case "reset":
+            case "merge":
+                Locks.take(EXCLUSIVE, EXCLUSIVE, SHARED);
+                break;
+            case "branch":
+            case "rm-branch":
+                Locks.take(EXCLUSIVE, NONE, NONE);
+                break;
+            case "gc":
+                // gc also deletes the indexes derived from the history.
+                Locks.take(EXCLUSIVE, SHARED, EXCLUSIVE);
+                break;
+            case "repack":
+            case "migrate":
+                Locks.take(NONE, NONE, EXCLUSIVE);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** Runs `log [-n N] [--skip N] [--since DATE] [--until DATE]
+     *  [--oneline]`.  Options taking a value also accept --option=VALUE. */
+    private static void log(String[] args) {
+        int limit = -1;
+        int skip = 0;
+        long since = Long.MIN_VALUE;
+        long until = Long.MAX_VALUE;
+        boolean oneline = false;
+        for (int i = 1; i < args.length; i += 1) {
+            String option = args[i];
+            if (option.equals("--oneline")) {
+                oneline = true;
+                continue;
+            }
+            String value = null;
+            int equals = option.indexOf('=');
+            if (option.startsWith("--") && equals > 0) {
+                value = option.substring(equals + 1);
+                option = option.substring(0, equals);
+            } else if (i + 1 < args.length) {
+                i += 1;
+                value = args[i];
+            }
+            boolean ok = value != null;
+            try {
+                if (ok && option.equals("-n")) {
+                    limit = Integer.parseInt(value);
+                    ok = limit >= 0;
+                } else if (ok && option.equals("--skip")) {
+                    skip = Integer.parseInt(value);
+                    ok = skip >= 0;
+                } else if (ok && option.equals("--since")) {
+                    since = parseDate(value, false);
+                } else if (ok && option.equals("--until")) {
+                    until = parseDate(value, true);
+                } else {
+                    ok = false;
+                }
+            } catch (NumberFormatException e) {
+                ok = false;
+            }
+            if (!ok) {
+                System.out.println("Incorrect operands.");
+                return;
+            }
+        }
+        if (checkOperandCount(1, 1)) {
+            Repository.log(limit, skip, since, until, oneline);
+        }
+    }
+
+    /** Returns the time in milliseconds named by DATE, either a date and
+     *  time such as 2024-05-01T12:30 or a day such as 2024-05-01 in the
+     *  local time zone.  A day is taken as its last moment if END, and its
+     *  first otherwise. */
+    private static long parseDate(String date, boolean end) {
+        ZoneId zone = ZoneId.systemDefault();
+        try {
+            return LocalDateTime.parse(date).atZone(zone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            // not a date and time; try a day.
+        }
+        try {
+            LocalDate day = LocalDate.parse(date);
+            if (end) {
+                return day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli() - 1;
+            }
+            return day.atStartOfDay(zone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw Utils.error("Bad date: %s.", date);
+        }
+    }
+
+    /** Runs the command given by ARGS. */
+    private static void run(String[] args) {
         String firstArg = args[0];
         switch(firstArg) {
             case "init":
@@ -40,11 +200,10 @@ public class Main {
                 break;
             case "add":
                 // TODO: handle the `add [filename]` command
-                if (!checkOperandCount(2, args.length)) {
+                if (!checkOperandCount(2, Math.min(args.length, 2))) {
                     break;
                 }
-                String filename = args[1];
-                Repository.addFile(filename);
+                Repository.addFiles(Arrays.asList(args).subList(1, args.length));
                 break;
             // TODO: FILL THE REST IN
             case "commit":
@@ -59,10 +218,7 @@ public class Main {
                 Repository.makeNewCommit(message);
                 break;
             case "log":
-                if (!checkOperandCount(1, args.length)) {
-                    break;
-                }
-                Repository.log();
+                log(args);
                 break;
             case "global-log":
                 if (!checkOperandCount(1, args.length)) {
@@ -71,6 +227,10 @@ public class Main {
                 Repository.globalLog();
                 break;
             case "find":
+                if (args.length == 3 && (args[1].equals("--prefix") || args[1].equals("--token"))) {
+                    Repository.find(args[2], args[1].substring(2));
+                    break;
+                }
                 if (!checkOperandCount(2, args.length)) {
                     break;
                 }
@@ -146,6 +306,54 @@ public class Main {
                     throw new RuntimeException(e);
                 }
                 break;
+            case "daemon":
+                if (args.length == 1 && Repository.REPO.exists()) {
+                    Daemon.serve();
+                } else if (args.length == 2 && args[1].equals("stop")) {
+                    if (!Client.forward(args)) {
+                        System.out.println("No gitlet daemon is running.");
+                    }
+                } else {
+                    checkOperandCount(1, args.length);
+                }
+                break;
+            case "watch":
+                if (args.length == 2 && args[1].equals("stop") && Repository.REPO.exists()) {
+                    Watcher.stop();
+                } else if (checkOperandCount(1, args.length)) {
+                    Watcher.run();
+                }
+                break;
+            case "repack":
+                if (!checkOperandCount(1, args.length)) {
+                    break;
+                }
+                Repository.repack();
+                break;
+            case "stats":
+                if (!checkOperandCount(1, args.length)) {
+                    break;
+                }
+                Repository.stats();
+                break;
+            case "gc":
+                if (args.length == 3 && args[1].equals("--grace")) {
+                    if (checkOperandCount(3, args.length)) {
+                        Repository.gc(args[2]);
+                    }
+                    break;
+                }
+                if (!checkOperandCount(1, args.length)) {
+                    break;
+                }
+                Repository.gc(null);
+                break;
+            case "migrate":
+                if (!checkOperandCount(1, args.length)) {
+                    break;
+                }
+                Repository.migrate();
+                break;
             default:
                 System.out.println("No command with that name exists.");
                 break;
@@ -0,0 +1,454 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Repository.MESSAGES;
+import static gitlet.Utils.*;
+
+/** An index of commit messages supporting exact, prefix and token search
+ *  without reading any commits.
+ *
+ *  The file is a magic number, a version, the offset of its tail and the
+ *  numbers of messages and words in its sorted part.  Then come a table of
+ *  the offsets of the messages' entries, in order of their UTF-8 bytes, and
+ *  one of the words' entries, likewise; each entry is a length-prefixed
+ *  key followed by the number and the 20-byte ids of the commits it names.
+ *  The tail holds the commits made since the file was last written, one
+ *  record each: the id, the length of the message in bytes and the
+ *  message.  A search binary searches the memory-mapped tables, so it
+ *  reads only the entries it needs, and scans the tail; once the tail
+ *  passes MAX_TAIL bytes the file is rewritten with everything sorted.
+ *
+ *  If the file is missing, or of an older version, it is rebuilt from
+ *  every commit in the repository.  Whole rewrites go through a temporary
+ *  file and a rename, so no reader sees a half-written one.  A partial
+ *  record left at the end by an interrupted append is ignored and
+ *  overwritten by the next one.
+ *  @author beckettq
+ */
+class MessageIndex {
+
+    /** Identifies a message index file. */
+    private static final int MAGIC = 0x474d5349; // "GMSI"
+    /** The message index format version. */
+    private static final int VERSION = 2;
+    /** Length of the header. */
+    private static final int HEADER = 20;
+    /** Length of a commit id in bytes. */
+    private static final int ID_BYTES = 20;
+    /** The largest tail, in bytes, kept before the file is rewritten. */
+    private static final int MAX_TAIL = 64 << 10;
+
+    /** The mapped file. */
+    private final MappedByteBuffer buf;
+    /** The number of sorted messages and words. */
+    private final int messages;
+    private final int words;
+    /** The offsets of the tail and of the end of its last whole record. */
+    private final int tail;
+    private final int end;
+
+    private MessageIndex(MappedByteBuffer buf) {
+        this.buf = buf;
+        if (buf.limit() < HEADER || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw error("Corrupt message index.");
+        }
+        tail = buf.getInt(8);
+        messages = buf.getInt(12);
+        words = buf.getInt(16);
+        if (tail < HEADER || tail > buf.limit() || messages < 0 || words < 0
+            || HEADER + 4L * (messages + words) > tail) {
+            throw error("Corrupt message index.");
+        }
+        int offset = tail;
+        while (offset + ID_BYTES + 4 <= buf.limit()) {
+            int size = buf.getInt(offset + ID_BYTES);
+            if (size < 0 || size > buf.limit() - offset - ID_BYTES - 4) {
+                break;
+            }
+            offset += ID_BYTES + 4 + size;
+        }
+        end = offset;
+    }
+
+    /** Returns the message index of the current repository, building it
+     *  first if it is missing or out of date. */
+    static MessageIndex read() {
+        if (!current()) {
+            rebuild();
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(MESSAGES, "r")) {
+            return new MessageIndex(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Returns true if MESSAGES exists and has the current version. */
+    private static boolean current() {
+        try (RandomAccessFile raf = new RandomAccessFile(MESSAGES, "r")) {
+            return raf.length() >= HEADER && raf.readInt() == MAGIC && raf.readInt() == VERSION;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Rewrites MESSAGES from every commit in the object store. */
+    private static void rebuild() {
+        TreeMap<String, TreeSet<String>> byMessage = new TreeMap<>();
+        for (String id : ObjectStore.commitIds()) {
+            byMessage.computeIfAbsent(ObjectStore.readCommit(id).message, m -> new TreeSet<>()).add(id);
+        }
+        write(byMessage);
+    }
+
+    /** Records that the commit ID has MESSAGE.  The record is appended
+     *  after the last whole one without reading the rest of the file,
+     *  which is rewritten once its tail grows too long. */
+    static void add(String id, String message) {
+        if (!current()) {
+            // the rebuilt index already has ID.
+            rebuild();
+            return;
+        }
+        MessageIndex index = read();
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        try (RandomAccessFile raf = new RandomAccessFile(MESSAGES, "rw")) {
+            // drop any partial record after the last whole one.
+            raf.setLength(index.end);
+            raf.seek(index.end);
+            ByteBuffer record = ByteBuffer.allocate(ID_BYTES + 4 + bytes.length);
+            record.put(fromHex(id)).putInt(bytes.length).put(bytes);
+            raf.write(record.array());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        if (index.end + ID_BYTES + 4 + bytes.length - index.tail > MAX_TAIL) {
+            read().compact();
+        }
+    }
+
+    /** Rewrites MESSAGES with the whole of this index sorted. */
+    private void compact() {
+        TreeMap<String, TreeSet<String>> byMessage = new TreeMap<>();
+        for (int i = 0; i < messages; i += 1) {
+            int offset = entry(i);
+            byMessage.put(new String(key(offset), StandardCharsets.UTF_8), new TreeSet<>(ids(offset)));
+        }
+        for (Map.Entry<String, String> record : tailRecords()) {
+            byMessage.computeIfAbsent(record.getValue(), m -> new TreeSet<>()).add(record.getKey());
+        }
+        write(byMessage);
+    }
+
+    /** Replaces MESSAGES with a file holding BYMESSAGE, the ids of the
+     *  commits with each message, all sorted and with no tail. */
+    private static void write(TreeMap<String, TreeSet<String>> byMessage) {
+        TreeMap<byte[], TreeSet<String>> messageKeys = new TreeMap<>(Arrays::compareUnsigned);
+        TreeMap<byte[], TreeSet<String>> wordKeys = new TreeMap<>(Arrays::compareUnsigned);
+        for (Map.Entry<String, TreeSet<String>> entry : byMessage.entrySet()) {
+            messageKeys.put(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue());
+            for (String word : tokenize(entry.getKey())) {
+                wordKeys.computeIfAbsent(word.getBytes(StandardCharsets.UTF_8), k -> new TreeSet<>())
+                    .addAll(entry.getValue());
+            }
+        }
+
+        int tables = HEADER + 4 * (messageKeys.size() + wordKeys.size());
+        int tail = tables + entriesLength(messageKeys) + entriesLength(wordKeys);
+        File tmp;
+        try {
+            tmp = File.createTempFile("messages.", ".tmp", GITLET_DIR);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(tail);
+            out.writeInt(messageKeys.size());
+            out.writeInt(wordKeys.size());
+            int offset = tables;
+            for (TreeMap<byte[], TreeSet<String>> keys : List.of(messageKeys, wordKeys)) {
+                for (Map.Entry<byte[], TreeSet<String>> entry : keys.entrySet()) {
+                    out.writeInt(offset);
+                    offset += entryLength(entry);
+                }
+            }
+            for (TreeMap<byte[], TreeSet<String>> keys : List.of(messageKeys, wordKeys)) {
+                for (Map.Entry<byte[], TreeSet<String>> entry : keys.entrySet()) {
+                    out.writeInt(entry.getKey().length);
+                    out.write(entry.getKey());
+                    out.writeInt(entry.getValue().size());
+                    for (String id : entry.getValue()) {
+                        out.write(fromHex(id));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), MESSAGES.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tmp.delete();
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    private static int entriesLength(TreeMap<byte[], TreeSet<String>> keys) {
+        int length = 0;
+        for (Map.Entry<byte[], TreeSet<String>> entry : keys.entrySet()) {
+            length += entryLength(entry);
+        }
+        return length;
+    }
+
+    private static int entryLength(Map.Entry<byte[], TreeSet<String>> entry) {
+        return 4 + entry.getKey().length + 4 + ID_BYTES * entry.getValue().size();
+    }
+
+    /** Returns the offset of the entry of sorted message I, or of word
+     *  I - messages. */
+    private int entry(int i) {
+        int offset = buf.getInt(HEADER + 4 * i);
+        if (offset < HEADER || offset > tail - 8) {
+            throw error("Corrupt message index.");
+        }
+        return offset;
+    }
+
+    /** Returns the key of the entry at OFFSET. */
+    private byte[] key(int offset) {
+        int size = buf.getInt(offset);
+        if (size < 0 || size > tail - offset - 8) {
+            throw error("Corrupt message index.");
+        }
+        byte[] key = new byte[size];
+        buf.get(offset + 4, key);
+        return key;
+    }
+
+    /** Returns the ids named by the entry at OFFSET. */
+    private List<String> ids(int offset) {
+        int start = offset + 4 + key(offset).length;
+        int count = buf.getInt(start);
+        if (count < 0 || count > (tail - start - 4) / ID_BYTES) {
+            throw error("Corrupt message index.");
+        }
+        List<String> result = new ArrayList<>(count);
+        byte[] id = new byte[ID_BYTES];
+        for (int i = 0; i < count; i += 1) {
+            buf.get(start + 4 + i * ID_BYTES, id);
+            result.add(toHex(id));
+        }
+        return result;
+    }
+
+    /** Returns the index of the first of the COUNT sorted keys starting at
+     *  entry FIRST that is not less than KEY. */
+    private int lowerBound(int first, int count, byte[] key) {
+        int lo = first;
+        int hi = first + count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Arrays.compareUnsigned(key(entry(mid)), key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns the ids and messages of the records in the tail. */
+    private List<Map.Entry<String, String>> tailRecords() {
+        List<Map.Entry<String, String>> result = new ArrayList<>();
+        byte[] id = new byte[ID_BYTES];
+        for (int offset = tail; offset < end; ) {
+            buf.get(offset, id);
+            byte[] message = new byte[buf.getInt(offset + ID_BYTES)];
+            buf.get(offset + ID_BYTES + 4, message);
+            result.add(Map.entry(toHex(id), new String(message, StandardCharsets.UTF_8)));
+            offset += ID_BYTES + 4 + message.length;
+        }
+        return result;
+    }
+
+    /** Returns the ids of the commits whose message is exactly MESSAGE, in
+     *  sorted order. */
+    List<String> exact(String message) {
+        TreeSet<String> result = new TreeSet<>();
+        byte[] key = message.getBytes(StandardCharsets.UTF_8);
+        int i = lowerBound(0, messages, key);
+        if (i < messages && Arrays.equals(key(entry(i)), key)) {
+            result.addAll(ids(entry(i)));
+        }
+        for (Map.Entry<String, String> record : tailRecords()) {
+            if (record.getValue().equals(message)) {
+                result.add(record.getKey());
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the ids of the commits whose message starts with PREFIX, in
+     *  sorted order. */
+    List<String> prefix(String prefix) {
+        TreeSet<String> result = new TreeSet<>();
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        for (int i = lowerBound(0, messages, key); i < messages; i += 1) {
+            byte[] message = key(entry(i));
+            if (message.length < key.length
+                || Arrays.compareUnsigned(message, 0, key.length, key, 0, key.length) != 0) {
+                break;
+            }
+            result.addAll(ids(entry(i)));
+        }
+        for (Map.Entry<String, String> record : tailRecords()) {
+            if (record.getValue().startsWith(prefix)) {
+                result.add(record.getKey());
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the ids of the commits whose message contains every word of
+     *  QUERY, ignoring case, in sorted order.  Only the shortest list of
+     *  ids is read in full; the others, which are sorted, are searched. */
+    List<String> words(String query) {
+        HashSet<String> tokens = tokenize(query);
+        if (tokens.isEmpty()) {
+            return new ArrayList<>();
+        }
+        HashMap<String, HashSet<String>> recent = new HashMap<>();
+        for (Map.Entry<String, String> record : tailRecords()) {
+            String message = record.getValue().toLowerCase(Locale.ROOT);
+            // only split the messages that might match.
+            boolean possible = true;
+            for (String word : tokens) {
+                possible &= message.contains(word);
+            }
+            if (possible) {
+                recent.computeIfAbsent(record.getKey(), k -> new HashSet<>()).addAll(tokenize(message));
+            }
+        }
+        HashMap<String, Integer> entries = new HashMap<>();
+        String shortest = null;
+        for (String word : tokens) {
+            byte[] key = word.getBytes(StandardCharsets.UTF_8);
+            int i = lowerBound(messages, words, key);
+            int offset = i < messages + words && Arrays.equals(key(entry(i)), key) ? entry(i) : -1;
+            entries.put(word, offset);
+            if (shortest == null || count(offset) < count(entries.get(shortest))) {
+                shortest = word;
+            }
+        }
+        TreeSet<String> result = new TreeSet<>();
+        if (entries.get(shortest) >= 0) {
+            result.addAll(ids(entries.get(shortest)));
+        }
+        result.addAll(recent.keySet());
+        result.removeIf(id -> {
+            for (String word : tokens) {
+                HashSet<String> recentWords = recent.get(id);
+                if (!contains(entries.get(word), id) && (recentWords == null || !recentWords.contains(word))) {
+                    return true;
+                }
+            }
+            return false;
+        });
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the number of ids named by the entry at OFFSET, or 0 if
+     *  OFFSET is -1. */
+    private int count(int offset) {
+        return offset < 0 ? 0 : buf.getInt(offset + 4 + key(offset).length);
+    }
+
+    /** Returns true if the entry at OFFSET, which is -1 for none, names
+     *  ID. */
+    private boolean contains(int offset, String id) {
+        int start = offset + 8 + (offset < 0 ? 0 : key(offset).length);
+        byte[] key = fromHex(id);
+        byte[] other = new byte[ID_BYTES];
+        int lo = 0;
+        int hi = count(offset) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            buf.get(start + mid * ID_BYTES, other);
+            int cmp = Arrays.compareUnsigned(other, key);
+            if (cmp == 0) {
+                return true;
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the distinct lower-case words of TEXT. */
+    private static HashSet<String> tokenize(String text) {
+        HashSet<String> result = new HashSet<>();
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); ) {
+            int c = i < lower.length() ? lower.codePointAt(i) : ' ';
+            if (isWordChar(c)) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                result.add(lower.substring(start, i));
+                start = -1;
+            }
+            i += Character.charCount(c);
+        }
+        return result;
+    }
+
+    /** Returns true if C is a letter or a number, as \p{L} and \p{N}
+     *  match them. */
+    private static boolean isWordChar(int c) {
+        switch (Character.getType(c)) {
+            case Character.UPPERCASE_LETTER:
+            case Character.LOWERCASE_LETTER:
+            case Character.TITLECASE_LETTER:
+            case Character.MODIFIER_LETTER:
+            case Character.OTHER_LETTER:
+            case Character.DECIMAL_DIGIT_NUMBER:
+            case Character.LETTER_NUMBER:
+            case Character.OTHER_NUMBER:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Counts the I/O and hashing done by one command and times its phases.
+ *
+ *  Utils and ObjectStore bump the counters, which are LongAdders so that
+ *  the threads hashing files in parallel do not contend for them.
+ *  Repository brackets the steps of each command with phase(); phases are
+ *  timed on the thread that opened them and may nest.  While Flight
+ *  Recorder is running, every phase is also a JFR event, and the whole
+ *  command one more carrying the counters, so a recording started with
+ *  -XX:StartFlightRecording shows them next to the JVM's own events.  The
+ *  event classes are not loaded otherwise, since that starts up JFR.
+ *
+ *  After the command, `--stats` prints the breakdown, and if the
+ *  gitlet.metrics system property names a file, one line of JSON
+ *  describing the command is appended to it.
+ *  @author beckettq
+ */
+class Metrics {
+
+    /** What is counted. */
+    enum Counter {
+        OBJECTS_READ("objects deserialized"),
+        OBJECTS_WRITTEN("objects serialized"),
+        FILES_READ("readContents calls"),
+        FILES_WRITTEN("writeContents calls"),
+        BYTES_READ("bytes read"),
+        BYTES_WRITTEN("bytes written"),
+        BYTES_HASHED("bytes hashed"),
+        STORE_READS("objects read from the store"),
+        CACHE_HITS("object cache hits"),
+        LOCK_WAITS("locks waited for");
+
+        /** How the counter is described by --stats. */
+        final String label;
+        final LongAdder count = new LongAdder();
+
+        Counter(String label) {
+            this.label = label;
+        }
+    }
+
+    /** The command being measured. */
+    private static String command;
+    /** When it started, from System.nanoTime. */
+    private static long started;
+    /** The JFR event covering it, or null if JFR is not running. */
+    private static CommandEvent event;
+    /** The total nanoseconds and count of each phase, in order of first
+     *  use. */
+    private static final LinkedHashMap<String, long[]> PHASES = new LinkedHashMap<>();
+
+    /** Adds N to COUNTER. */
+    static void count(Counter counter, long n) {
+        counter.count.add(n);
+    }
+
+    /** Adds one to COUNTER. */
+    static void count(Counter counter) {
+        counter.count.increment();
+    }
+
+    /** Starts measuring COMMAND, forgetting the last one. */
+    static synchronized void start(String command) {
+        Metrics.command = command;
+        started = System.nanoTime();
+        event = null;
+        if (FlightRecorder.isInitialized()) {
+            event = new CommandEvent();
+            event.begin();
+        }
+        PHASES.clear();
+        for (Counter counter : Counter.values()) {
+            counter.count.reset();
+        }
+    }
+
+    /** Returns a phase named NAME, which runs until it is closed. */
+    static Phase phase(String name) {
+        return new Phase(name);
+    }
+
+    /** A timed step of a command, for use in try-with-resources.  The
+     *  resource is usually never referenced in the body, so methods that
+     *  open phases suppress javac's "try" lint warning. */
+    static class Phase implements AutoCloseable {
+        private final String name;
+        private final long begun = System.nanoTime();
+        private PhaseEvent event;
+
+        private Phase(String name) {
+            this.name = name;
+            if (FlightRecorder.isInitialized()) {
+                event = new PhaseEvent();
+                event.begin();
+            }
+        }
+
+        @Override
+        public void close() {
+            long elapsed = System.nanoTime() - begun;
+            synchronized (Metrics.class) {
+                long[] total = PHASES.computeIfAbsent(name, k -> new long[2]);
+                total[0] += elapsed;
+                total[1] += 1;
+            }
+            if (event == null) {
+                return;
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.command = command;
+                event.phase = name;
+                event.commit();
+            }
+        }
+    }
+
+    /** Ends the measurement of the current command, printing it if PRINT
+     *  and appending it to the gitlet.metrics file if one is named. */
+    static synchronized void finish(boolean print) {
+        if (command == null) {
+            return;
+        }
+        long elapsed = System.nanoTime() - started;
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.command = command;
+                event.objectsRead = Counter.OBJECTS_READ.count.sum();
+                event.bytesRead = Counter.BYTES_READ.count.sum();
+                event.bytesWritten = Counter.BYTES_WRITTEN.count.sum();
+                event.bytesHashed = Counter.BYTES_HASHED.count.sum();
+                event.storeReads = Counter.STORE_READS.count.sum();
+                event.commit();
+            }
+        }
+        if (print) {
+            print(System.out, elapsed);
+        }
+        String dump = System.getProperty("gitlet.metrics");
+        if (dump != null) {
+            try {
+                Files.write(Paths.get(dump), (json(elapsed) + "\n").getBytes(StandardCharsets.UTF_8),
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+        command = null;
+    }
+
+    private static void print(PrintStream out, long elapsed) {
+        out.println("=== Stats ===");
+        out.printf("%-32s %10.3f ms%n", command, elapsed / 1e6);
+        for (Map.Entry<String, long[]> phase : PHASES.entrySet()) {
+            long[] total = phase.getValue();
+            String name = "  " + phase.getKey() + (total[1] > 1 ? " (x" + total[1] + ")" : "");
+            out.printf("%-32s %10.3f ms%n", name, total[0] / 1e6);
+        }
+        for (Counter counter : Counter.values()) {
+            out.printf("%-32s %13d%n", counter.label, counter.count.sum());
+        }
+        out.println();
+        out.flush();
+    }
+
+    /** Returns the measurements as a JSON object on one line. */
+    private static String json(long elapsed) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"command\":");
+        quote(json, command);
+        json.append(",\"nanos\":").append(elapsed);
+        json.append(",\"phases\":{");
+        String separator = "";
+        for (Map.Entry<String, long[]> phase : PHASES.entrySet()) {
+            json.append(separator);
+            quote(json, phase.getKey());
+            json.append(":{\"nanos\":").append(phase.getValue()[0]).append(",\"count\":")
+                .append(phase.getValue()[1]).append('}');
+            separator = ",";
+        }
+        json.append("},\"counters\":{");
+        separator = "";
+        for (Counter counter : Counter.values()) {
+            json.append(separator).append('"').append(counter.name().toLowerCase()).append("\":")
+                .append(counter.count.sum());
+            separator = ",";
+        }
+        return json.append("}}").toString();
+    }
+
+    /** Appends TEXT to JSON as a JSON string, escaping quotes, backslashes
+     *  and control characters. */
+    private static void quote(StringBuilder json, String text) {
+        json.append('"');
+        for (int i = 0; i < text.length(); i += 1) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    json.append('\\').append(c);
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                    break;
+            }
+        }
+        json.append('"');
+    }
+
+    /** A JFR event covering one phase. */
+    @Name("gitlet.Phase")
+    @Label("Gitlet Phase")
+    @Category("Gitlet")
+    static class PhaseEvent extends Event {
+        @Label("Command")
+        String command;
+        @Label("Phase")
+        String phase;
+    }
+
+    /** A JFR event summing up one command. */
+    @Name("gitlet.Command")
+    @Label("Gitlet Command")
+    @Category("Gitlet")
+    static class CommandEvent extends Event {
+        @Label("Command")
+        String command;
+        @Label("Objects Deserialized")
+        long objectsRead;
+        @Label("Objects Read From Store")
+        long storeReads;
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+        @Label("Bytes Hashed")
+        @DataAmount
+        long bytesHashed;
+    }
+}
@@ -0,0 +1,138 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A cache of decoded objects keyed by object id, bounded by the total
+ *  stored size of the objects it holds and evicting the least recently
+ *  used first.  Entries may carry a stamp (for example the modification
+ *  time of the file they were read from); a lookup with a different stamp
+ *  misses.  The cache is shared by everything running in one process.
+ *  @author beckettq
+ */
+class ObjectCache {
+
+    /** The default capacity in bytes, overridden by -Dgitlet.cache.bytes. */
+    static final long DEFAULT_CAPACITY = 64L << 20;
+
+    /** The cache shared by the whole process. */
+    private static final ObjectCache SHARED =
+        new ObjectCache(Long.getLong("gitlet.cache.bytes", DEFAULT_CAPACITY));
+
+    /** One cached object. */
+    private static class Entry {
+        final Object value;
+        final long stamp;
+        final long bytes;
+
+        Entry(Object value, long stamp, long bytes) {
+            this.value = value;
+            this.stamp = stamp;
+            this.bytes = bytes;
+        }
+    }
+
+    /** Entries from least to most recently used. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    /** The largest total size of the cached objects. */
+    private final long capacity;
+    /** The total size of the cached objects. */
+    private long bytes;
+    /** Lookup and eviction counts. */
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    ObjectCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /** Returns a stamp for FILE that changes whenever it is rewritten,
+     *  replaced or resized, or 0 if it does not exist. */
+    static long stamp(File file) {
+        long[] stat = Index.stat(file);
+        return stat == null ? 0 : (stat[1] * 31 + stat[0]) * 31 + stat[2];
+    }
+
+    /** Returns the cache shared by the whole process. */
+    static ObjectCache shared() {
+        return SHARED;
+    }
+
+    /** Returns the object cached under KEY as a TYPE, or null if it is not
+     *  cached. */
+    <T> T get(String key, Class<T> type) {
+        return get(key, 0, type);
+    }
+
+    /** Returns the object cached under KEY with STAMP as a TYPE, or null if
+     *  it is not cached or was cached with another stamp. */
+    synchronized <T> T get(String key, long stamp, Class<T> type) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.stamp != stamp) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return type.cast(entry.value);
+    }
+
+    /** Caches VALUE, whose stored size is SIZE bytes, under KEY. */
+    void put(String key, Object value, long size) {
+        put(key, 0, value, size);
+    }
+
+    /** Caches VALUE, whose stored size is SIZE bytes, under KEY with STAMP,
+     *  evicting older entries as needed.  Objects larger than the whole
+     *  cache are not cached. */
+    synchronized void put(String key, long stamp, Object value, long size) {
+        invalidate(key);
+        if (size > capacity) {
+            return;
+        }
+        entries.put(key, new Entry(value, stamp, size));
+        bytes += size;
+        Iterator<Map.Entry<String, Entry>> oldest = entries.entrySet().iterator();
+        while (bytes > capacity) {
+            bytes -= oldest.next().getValue().bytes;
+            oldest.remove();
+            evictions += 1;
+        }
+    }
+
+    /** Removes the object cached under KEY, if any. */
+    synchronized void invalidate(String key) {
+        Entry old = entries.remove(key);
+        if (old != null) {
+            bytes -= old.bytes;
+        }
+    }
+
+    /** Removes every cached object. */
+    synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /** Returns the number of lookups that found their object. */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /** Returns the number of lookups that did not find their object. */
+    synchronized long misses() {
+        return misses;
+    }
+
+    /** Returns the number of objects evicted to make room. */
+    synchronized long evictions() {
+        return evictions;
+    }
+
+    /** Returns the total size of the cached objects. */
+    synchronized long size() {
+        return bytes;
+    }
+}
@@ -0,0 +1,394 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+import static gitlet.Repository.BLOBS;
+import static gitlet.Repository.CHUNKS;
+import static gitlet.Repository.COMMITS;
+import static gitlet.Repository.INDEX;
+import static gitlet.Repository.TREES;
+import static gitlet.Utils.*;
+
+/** Reads commits, trees and blobs wherever they live: as loose files in
+ *  COMMITS, TREES and BLOBS, or inside a pack.  Also folds loose objects
+ *  into a pack.
+ *
+ *  Loose objects are stored under a subdirectory named by the first two
+ *  hex digits of their id, holding a file named by the remaining digits,
+ *  so that no directory grows too large.  Older repositories keep every
+ *  object directly in COMMITS or BLOBS; those objects are still found, and
+ *  migrate() moves them into place.
+ *  @author beckettq
+ */
+class ObjectStore {
+
+    /** Blobs are only stored as deltas when that saves at least this
+     *  fraction of their size. */
+    private static final double DELTA_RATIO = 0.75;
+
+    /** The longest chain of deltas that must be resolved to read a blob. */
+    private static final int MAX_DELTA_DEPTH = 16;
+
+    /** Returns the commit with the given ID.  Commits are shared through the
+     *  object cache, so callers must not modify them. */
+    static Commit readCommit(String id) {
+        Commit commit = ObjectCache.shared().get(id, Commit.class);
+        if (commit != null) {
+            Metrics.count(Metrics.Counter.CACHE_HITS);
+            return commit;
+        }
+        Metrics.count(Metrics.Counter.STORE_READS);
+        File loose = looseFile(COMMITS, id);
+        byte[] contents = loose.exists() ? readContents(loose) : readPacked(id);
+        if (contents == null) {
+            throw error("No commit with that id exists.");
+        }
+        commit = CommitCodec.decode(id, contents);
+        ObjectCache.shared().put(id, commit, contents.length);
+        return commit;
+    }
+
+    /** Returns the tree with the given ID, shared through the object
+     *  cache like commits. */
+    static Tree readTree(String id) {
+        Tree tree = ObjectCache.shared().get(id, Tree.class);
+        if (tree != null) {
+            Metrics.count(Metrics.Counter.CACHE_HITS);
+            return tree;
+        }
+        Metrics.count(Metrics.Counter.STORE_READS);
+        File loose = looseFile(TREES, id);
+        byte[] contents = loose.exists() ? readContents(loose) : readPacked(id);
+        if (contents == null) {
+            throw error("No tree with that id exists.");
+        }
+        tree = Tree.decode(contents);
+        ObjectCache.shared().put(id, tree, contents.length);
+        return tree;
+    }
+
+    /** Stores the encoded tree CONTENTS under ID as a loose object. */
+    static void writeTree(String id, byte[] contents) {
+        File loose = newLooseFile(TREES, id);
+        writeContents(loose, contents);
+        Journal.written(loose);
+    }
+
+    /** Returns the contents of the blob with the given ID. */
+    static byte[] readBlob(String id) {
+        byte[] contents = readRaw(id);
+        if (contents == null) {
+            throw error("No blob with that id exists.");
+        }
+        return contents;
+    }
+
+    /** Writes the contents of the blob ID to DEST, creating or overwriting
+     *  it as needed.  Loose blobs are streamed through their codec, so
+     *  their contents are never held in memory at once. */
+    static void copyBlob(String id, File dest) {
+        File loose = looseFile(BLOBS, id);
+        if (!loose.exists()) {
+            writeContents(dest, readBlob(id));
+            return;
+        }
+        Metrics.count(Metrics.Counter.STORE_READS);
+        BlobFile.copy(loose, dest);
+    }
+
+    /** Stores CONTENTS as the loose blob ID, compressed with the configured
+     *  codec. */
+    static void writeBlob(String id, byte[] contents) {
+        File loose = newLooseFile(BLOBS, id);
+        BlobFile.write(contents, loose, Codec.configured());
+        Journal.written(loose);
+    }
+
+    /** Returns the number of loose blobs, their total size on disk,
+     *  counting the chunks of chunked blobs, and their total uncompressed
+     *  size. */
+    static long[] looseBlobStats() {
+        long[] stats = new long[3];
+        for (String id : looseIds(BLOBS)) {
+            File loose = looseFile(BLOBS, id);
+            stats[0] += 1;
+            stats[1] += loose.length();
+            stats[2] += BlobFile.rawSize(loose);
+        }
+        for (String id : looseIds(CHUNKS)) {
+            stats[1] += looseFile(CHUNKS, id).length();
+        }
+        return stats;
+    }
+
+    /** Returns the stored bytes of the loose or packed object ID, with loose
+     *  blobs decompressed, or null if there is no such object. */
+    static byte[] readRaw(String id) {
+        Metrics.count(Metrics.Counter.STORE_READS);
+        File loose = looseFile(BLOBS, id);
+        if (loose.exists()) {
+            return BlobFile.read(loose);
+        }
+        loose = looseFile(COMMITS, id);
+        if (loose.exists()) {
+            return readContents(loose);
+        }
+        loose = looseFile(TREES, id);
+        if (loose.exists()) {
+            return readContents(loose);
+        }
+        return readPacked(id);
+    }
+
+    /** Returns the file holding the loose object ID in DIR: its fan-out
+     *  path, or its flat path if it was stored before objects were fanned
+     *  out and has not been migrated.  If neither exists, returns the
+     *  fan-out path. */
+    static File looseFile(File dir, String id) {
+        File sharded = shardedFile(dir, id);
+        if (sharded.exists() || id.length() < 3) {
+            return sharded;
+        }
+        File flat = join(dir, id);
+        return flat.exists() ? flat : sharded;
+    }
+
+    /** Returns the file in which a new loose object ID is written to DIR,
+     *  creating its fan-out directory if necessary. */
+    static File newLooseFile(File dir, String id) {
+        File sharded = shardedFile(dir, id);
+        sharded.getParentFile().mkdirs();
+        return sharded;
+    }
+
+    private static File shardedFile(File dir, String id) {
+        if (id.length() < 3) {
+            return join(dir, id);
+        }
+        return join(dir, id.substring(0, 2), id.substring(2));
+    }
+
+    /** Deletes the loose object ID from DIR, and its fan-out directory if
+     *  that is left empty. */
+    static void deleteLoose(File dir, String id) {
+        File loose = looseFile(dir, id);
+        loose.delete();
+        if (!loose.getParentFile().equals(dir)) {
+            // only succeeds once the directory is empty.
+            loose.getParentFile().delete();
+        }
+    }
+
+    /** Returns the ids of the loose objects in DIR, in either layout. */
+    static List<String> looseIds(File dir) {
+        List<String> flat = plainFilenamesIn(dir);
+        List<String> result = flat == null ? new ArrayList<>() : new ArrayList<>(flat);
+        File[] shards = dir.listFiles(f -> f.isDirectory() && f.getName().length() == 2);
+        if (shards != null) {
+            for (File shard : shards) {
+                for (String rest : plainFilenamesIn(shard)) {
+                    result.add(shard.getName() + rest);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Moves every loose object still stored in the flat layout into its
+     *  fan-out directory, and gives every loose blob and staged copy
+     *  written before blobs had headers an uncompressed one, returning how
+     *  many objects were changed.  Each object is moved or rewritten with a
+     *  single rename, so an interrupted migration leaves a valid repository
+     *  and running it again picks up where it stopped. */
+    static int migrate() {
+        HashSet<String> migrated = new HashSet<>();
+        for (File dir : new File[] {COMMITS, BLOBS}) {
+            for (String id : plainFilenamesIn(dir)) {
+                if (id.length() != UID_LENGTH) {
+                    continue;
+                }
+                File flat = join(dir, id);
+                File sharded = newLooseFile(dir, id);
+                if (sharded.exists()) {
+                    flat.delete();
+                } else if (!flat.renameTo(sharded)) {
+                    throw error("Could not move object %s.", id);
+                }
+                migrated.add(id);
+            }
+        }
+        for (String id : looseIds(BLOBS)) {
+            if (id.length() == UID_LENGTH && BlobFile.addHeader(looseFile(BLOBS, id), id)) {
+                migrated.add(id);
+            }
+        }
+        for (String id : plainFilenamesIn(INDEX)) {
+            if (id.length() == UID_LENGTH && BlobFile.addHeader(join(INDEX, id), id)) {
+                migrated.add(id);
+            }
+        }
+        return migrated.size();
+    }
+
+    private static byte[] readPacked(String id) {
+        if (id.length() != UID_LENGTH) {
+            return null;
+        }
+        for (Pack pack : Pack.all()) {
+            byte[] contents = pack.read(id);
+            if (contents != null) {
+                return contents;
+            }
+        }
+        return null;
+    }
+
+    /** Returns true if a commit with the given ID exists. */
+    static boolean hasCommit(String id) {
+        return id != null && (looseFile(COMMITS, id).exists() || packedType(id) == Pack.COMMIT);
+    }
+
+    /** Returns true if a tree with the given ID exists. */
+    static boolean hasTree(String id) {
+        return looseFile(TREES, id).exists() || packedType(id) == Pack.TREE;
+    }
+
+    /** Returns true if a blob with the given ID exists. */
+    static boolean hasBlob(String id) {
+        if (looseFile(BLOBS, id).exists()) {
+            return true;
+        }
+        int type = packedType(id);
+        return type == Pack.BLOB || type == Pack.DELTA;
+    }
+
+    private static int packedType(String id) {
+        if (id.length() != UID_LENGTH) {
+            return 0;
+        }
+        for (Pack pack : Pack.all()) {
+            int type = pack.type(id);
+            if (type != 0) {
+                return type;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the ids of every commit, loose or packed, in sorted order. */
+    static List<String> commitIds() {
+        return ids(COMMITS, Pack.COMMIT);
+    }
+
+    /** Returns the ids of every tree, loose or packed, in sorted order. */
+    static List<String> treeIds() {
+        return ids(TREES, Pack.TREE);
+    }
+
+    /** Returns the ids of every blob, loose or packed, in sorted order. */
+    static List<String> blobIds() {
+        return ids(BLOBS, Pack.BLOB);
+    }
+
+    private static List<String> ids(File looseDir, int type) {
+        TreeSet<String> result = new TreeSet<>(looseIds(looseDir));
+        for (Pack pack : Pack.all()) {
+            result.addAll(pack.ids(type));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Writes every loose and packed object into a single new pack, storing
+     *  each version of a file as a delta against the previous version of
+     *  the same file where that is smaller, then removes the loose copies
+     *  and the old packs.  Chunked blobs are left loose. */
+    static void repack() {
+        repack(id -> true);
+    }
+
+    /** Like repack(), but leaves out, and so deletes, the objects whose
+     *  ids do not satisfy KEEP.  The kept objects must include every
+     *  object reachable from a kept commit. */
+    static void repack(Predicate<String> keep) {
+        List<Pack> oldPacks = new ArrayList<>(Pack.all());
+        List<String> allCommits = commitIds();
+        List<String> allTrees = treeIds();
+        List<String> allBlobs = blobIds();
+        List<String> commitIds = new ArrayList<>(allCommits);
+        commitIds.removeIf(keep.negate());
+        List<String> treeIds = new ArrayList<>(allTrees);
+        treeIds.removeIf(keep.negate());
+        // chunked blobs stay loose, sharing their chunks.
+        allBlobs.removeIf(id -> BlobFile.isChunked(looseFile(BLOBS, id)));
+        HashSet<String> blobIds = new HashSet<>(allBlobs);
+        blobIds.removeIf(keep.negate());
+        List<Commit> commits = new ArrayList<>();
+        for (String id : commitIds) {
+            commits.add(readCommit(id));
+        }
+        commits.sort(Comparator.naturalOrder());
+
+        Pack.Writer writer = new Pack.Writer();
+        for (String id : commitIds) {
+            writer.add(id, Pack.COMMIT, readRaw(id), null);
+        }
+        for (String id : treeIds) {
+            writer.add(id, Pack.TREE, readRaw(id), null);
+        }
+        HashMap<String, Integer> depth = new HashMap<>();
+        HashMap<String, String> previous = new HashMap<>();
+        for (Commit commit : commits) {
+            for (Map.Entry<String, String> file : commit.files().entrySet()) {
+                String id = file.getValue();
+                String base = previous.put(file.getKey(), id);
+                if (depth.containsKey(id) || !blobIds.contains(id)) {
+                    continue;
+                }
+                byte[] contents = readBlob(id);
+                if (base != null && depth.getOrDefault(base, MAX_DELTA_DEPTH) < MAX_DELTA_DEPTH) {
+                    byte[] delta = Delta.encode(readBlob(base), contents);
+                    if (delta.length < contents.length * DELTA_RATIO) {
+                        writer.add(id, Pack.DELTA, delta, base);
+                        depth.put(id, depth.get(base) + 1);
+                        continue;
+                    }
+                }
+                writer.add(id, Pack.BLOB, contents, null);
+                depth.put(id, 0);
+            }
+        }
+        for (String id : blobIds) {
+            if (!depth.containsKey(id)) {
+                writer.add(id, Pack.BLOB, readBlob(id), null);
+            }
+        }
+        String name = writer.finish();
+        // the new pack must be on disk before the objects in it are deleted.
+        Journal.sync();
+        Pack.reload();
+        for (Pack pack : oldPacks) {
+            // an unchanged pack is rewritten under its own name.
+            if (!pack.name().equals(name)) {
+                pack.delete();
+            }
+        }
+        for (String id : allCommits) {
+            deleteLoose(COMMITS, id);
+        }
+        for (String id : allTrees) {
+            deleteLoose(TREES, id);
+        }
+        for (String id : allBlobs) {
+            deleteLoose(BLOBS, id);
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Repository.PACKS;
+import static gitlet.Utils.*;
+
+/** A packfile: many objects stored back to back in one data file, plus a
+ *  sorted index of object ids that is memory mapped and binary searched.
+ *
+ *  The index file is laid out as a magic number, a version, a 256-entry
+ *  fan-out table (the number of ids whose first byte is <= i) and then one
+ *  record per object: the 20-byte id, the object type and the offset of the
+ *  entry in the data file.  Each data entry is the type, the payload length,
+ *  the 20-byte base id for deltas or else the number of the Codec that
+ *  compressed the payload, and the payload.  Packs of version 1, written
+ *  before entries were compressed, have no codec number.
+ *  @author beckettq
+ */
+class Pack {
+
+    /** Type of a packed commit. */
+    static final int COMMIT = 1;
+    /** Type of a packed blob stored whole. */
+    static final int BLOB = 2;
+    /** Type of a packed blob stored as a delta against another blob. */
+    static final int DELTA = 3;
+    /** Type of a packed tree. */
+    static final int TREE = 4;
+
+    /** Identifies an index file. */
+    private static final int MAGIC = 0x47504b49; // "GPKI"
+    /** The index format version. */
+    private static final int VERSION = 2;
+    /** The version of packs whose entries are not compressed. */
+    private static final int RAW_VERSION = 1;
+    /** Length of an object id in bytes. */
+    private static final int ID_BYTES = 20;
+    /** Length of one index record. */
+    private static final int RECORD = ID_BYTES + 1 + 8;
+    /** Offset of the first index record. */
+    private static final int HEADER = 8 + 256 * 4;
+
+    /** The packs that are currently on disk, or null if not yet loaded. */
+    private static List<Pack> packs;
+    /** The stamp of PACKS when PACKS was loaded. */
+    private static long packsStamp;
+
+    /** The memory-mapped index of this pack. */
+    private final MappedByteBuffer index;
+    /** The number of objects in this pack. */
+    private final int count;
+    /** The format version of this pack. */
+    private final int version;
+    /** The data file of this pack. */
+    private final File dataFile;
+    /** Channel for reading the data file, opened on first use. */
+    private FileChannel data;
+
+    private Pack(File indexFile) {
+        dataFile = new File(indexFile.getPath().replaceFirst("\\.idx$", ".pack"));
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) {
+            index = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        version = index.getInt(4);
+        if (index.getInt(0) != MAGIC || (version != VERSION && version != RAW_VERSION)) {
+            throw error("Corrupt pack index %s.", indexFile.getName());
+        }
+        count = index.getInt(8 + 255 * 4);
+    }
+
+    /** Returns every pack in the repository, rereading PACKS if another
+     *  process has changed it. */
+    static synchronized List<Pack> all() {
+        long stamp = ObjectCache.stamp(PACKS);
+        if (packs != null && stamp != packsStamp) {
+            reload();
+        }
+        if (packs == null) {
+            packsStamp = stamp;
+            packs = new ArrayList<>();
+            List<String> names = plainFilenamesIn(PACKS);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".idx")) {
+                        packs.add(new Pack(join(PACKS, name)));
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /** Forgets the loaded packs so that the next lookup rereads PACKS. */
+    static synchronized void reload() {
+        if (packs != null) {
+            for (Pack pack : packs) {
+                pack.close();
+            }
+        }
+        packs = null;
+    }
+
+    /** Returns the index record number of ID, or -1 if it is not here. */
+    private int find(String id) {
+        byte[] key = fromHex(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : index.getInt(8 + (first - 1) * 4);
+        int hi = index.getInt(8 + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, key);
+            if (cmp == 0) {
+                return mid;
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    private int compareId(int record, byte[] key) {
+        int base = HEADER + record * RECORD;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int cmp = Integer.compare(index.get(base + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private String idAt(int record) {
+        byte[] id = new byte[ID_BYTES];
+        index.get(HEADER + record * RECORD, id);
+        return toHex(id);
+    }
+
+    private int typeAt(int record) {
+        return index.get(HEADER + record * RECORD + ID_BYTES);
+    }
+
+    /** Returns true if ID is stored in this pack. */
+    boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /** Returns the type of ID in this pack, or 0 if it is absent. */
+    int type(String id) {
+        int record = find(id);
+        return record < 0 ? 0 : typeAt(record);
+    }
+
+    /** Returns the ids of all objects of TYPE in this pack, in order.
+     *  Blobs include deltified blobs. */
+    List<String> ids(int type) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < count; i += 1) {
+            int t = typeAt(i);
+            if (t == type || (type == BLOB && t == DELTA)) {
+                result.add(idAt(i));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the contents of ID with any delta resolved, or null if ID is
+     *  not in this pack. */
+    byte[] read(String id) {
+        int record = find(id);
+        if (record < 0) {
+            return null;
+        }
+        long offset = index.getLong(HEADER + record * RECORD + ID_BYTES + 1);
+        try {
+            FileChannel data = channel();
+            ByteBuffer head = ByteBuffer.allocate(5 + ID_BYTES);
+            data.read(head, offset);
+            head.flip();
+            int type = head.get();
+            int length = head.getInt();
+            String baseId = null;
+            int codec = Codec.NONE;
+            long start = offset + 5;
+            if (type == DELTA) {
+                byte[] base = new byte[ID_BYTES];
+                head.get(base);
+                baseId = toHex(base);
+                start += ID_BYTES;
+            } else if (version != RAW_VERSION) {
+                codec = head.get();
+                start += 1;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            while (payload.hasRemaining()) {
+                if (data.read(payload, start + payload.position()) < 0) {
+                    throw error("Truncated pack %s.", dataFile.getName());
+                }
+            }
+            if (type == DELTA) {
+                return Delta.apply(ObjectStore.readRaw(baseId), payload.array());
+            }
+            if (codec == Codec.NONE) {
+                return payload.array();
+            }
+            try (InputStream in = Codec.forId(codec).decompress(new ByteArrayInputStream(payload.array()))) {
+                return in.readAllBytes();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Returns the name of this pack, without its extension. */
+    String name() {
+        return dataFile.getName().replaceFirst("\\.pack$", "");
+    }
+
+    /** Returns the time at which this pack was written. */
+    long lastModified() {
+        return dataFile.lastModified();
+    }
+
+    /** Removes this pack's files from disk. */
+    void delete() {
+        close();
+        dataFile.delete();
+        new File(dataFile.getPath().replaceFirst("\\.pack$", ".idx")).delete();
+    }
+
+    /** Returns the channel for reading the data file, opening it if
+     *  necessary.  Reads through it are positional, so threads may share
+     *  it. */
+    private synchronized FileChannel channel() throws IOException {
+        if (data == null) {
+            data = FileChannel.open(dataFile.toPath());
+        }
+        return data;
+    }
+
+    private synchronized void close() {
+        try {
+            if (data != null) {
+                data.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Writes a new pack into PACKS.  Entries other than deltas are
+     *  compressed with the repository's configured codec. */
+    static class Writer {
+        /** The codec compressing entries. */
+        private final Codec codec = Codec.configured();
+        /** The data file being written, under a temporary name. */
+        private final File tmpData;
+        /** The stream writing TMPDATA. */
+        private final DataOutputStream out;
+        /** Ids, types and offsets of the entries written so far. */
+        private final List<Object[]> entries = new ArrayList<>();
+        /** Number of bytes written to TMPDATA so far. */
+        private long offset;
+
+        Writer() {
+            PACKS.mkdir();
+            try {
+                tmpData = File.createTempFile("pack-", ".tmp", PACKS);
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpData)));
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+
+        /** Appends ID of TYPE with contents PAYLOAD.  BASEID is the id of the
+         *  delta base when TYPE is DELTA, and otherwise ignored. */
+        void add(String id, int type, byte[] payload, String baseId) {
+            try {
+                if (type != DELTA) {
+                    payload = compress(payload);
+                }
+                entries.add(new Object[] {id, type, offset});
+                out.writeByte(type);
+                out.writeInt(payload.length);
+                offset += 5;
+                if (type == DELTA) {
+                    out.write(fromHex(baseId));
+                    offset += ID_BYTES;
+                } else {
+                    out.writeByte(codec.id());
+                    offset += 1;
+                }
+                out.write(payload);
+                offset += payload.length;
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+
+        private byte[] compress(byte[] payload) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (OutputStream compressed = codec.compress(bytes)) {
+                compressed.write(payload);
+            }
+            return bytes.toByteArray();
+        }
+
+        /** Finishes the pack, writes its index and returns the pack's name.
+         *  Throws if the pack cannot be put in place, so that nothing is
+         *  deleted on the assumption that it is stored. */
+        String finish() {
+            entries.sort((a, b) -> ((String) a[0]).compareTo((String) b[0]));
+            int[] fanout = new int[256];
+            StringBuilder allIds = new StringBuilder();
+            for (Object[] entry : entries) {
+                String id = (String) entry[0];
+                fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+                allIds.append(id);
+            }
+            String name = "pack-" + sha1(allIds.toString());
+            File tmpIndex = null;
+            File packData = join(PACKS, name + ".pack");
+            File packIndex = join(PACKS, name + ".idx");
+            try {
+                out.close();
+                tmpIndex = File.createTempFile("pack-", ".tmp", PACKS);
+                DataOutputStream idx = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpIndex)));
+                idx.writeInt(MAGIC);
+                idx.writeInt(VERSION);
+                int total = 0;
+                for (int n : fanout) {
+                    total += n;
+                    idx.writeInt(total);
+                }
+                for (Object[] entry : entries) {
+                    idx.write(fromHex((String) entry[0]));
+                    idx.writeByte((Integer) entry[1]);
+                    idx.writeLong((Long) entry[2]);
+                }
+                idx.close();
+                // the index goes last, since a pack is found by its index.
+                Files.move(tmpData.toPath(), packData.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+                Files.move(tmpIndex.toPath(), packIndex.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                tmpData.delete();
+                if (tmpIndex != null) {
+                    tmpIndex.delete();
+                }
+                throw error("Could not write pack %s.", name);
+            }
+            Journal.written(packData);
+            Journal.written(packIndex);
+            return name;
+        }
+    }
+
+    /** Returns true if NAME is the data or index file of a pack. */
+    static boolean isPackFile(String name) {
+        return name.startsWith("pack-") && (name.endsWith(".pack") || name.endsWith(".idx"));
+    }
+}
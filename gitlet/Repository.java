@@ -1,9 +1,27 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 import static gitlet.Utils.*;
 
@@ -15,6 +33,9 @@ import static gitlet.Utils.*;
  */
 public class Repository implements Serializable {
 
+    /** Pinned so that repositories written by earlier versions stay readable. */
+    private static final long serialVersionUID = 1103634430446678025L;
+
     /** The current working directory. */
     public static final File CWD = new File(System.getProperty("user.dir"));
     /** The .gitlet directory. */
@@ -32,16 +53,63 @@ public class Repository implements Serializable {
     /** a file for storing one's blobs. */
     public static final File BLOBS = join(GITLET_DIR, "blobs");
 
-    /**The file that stores the indexmap.*/
+    /** a directory for storing the trees of commits. */
+    public static final File TREES = join(GITLET_DIR, "trees");
+
+    /** a directory for storing the chunks of chunked blobs. */
+    public static final File CHUNKS = join(GITLET_DIR, "chunks");
+
+    /** the repository's settings, such as the compression of new blobs. */
+    public static final File CONFIG = join(GITLET_DIR, "config");
+
+    /** the journal of metadata updates that are being published. */
+    public static final File JOURNAL = join(GITLET_DIR, "journal");
+
+    /** the commit-graph file, recording the shape of the history. */
+    public static final File GRAPH = join(GITLET_DIR, "commit-graph");
+
+    /** the table of commit ids, for resolving abbreviated ids. */
+    public static final File IDS = join(GITLET_DIR, "commit-ids");
+
+    /** the index of commit messages searched by find. */
+    public static final File MESSAGES = join(GITLET_DIR, "messages");
+
+    /** a directory for storing packs of commits and blobs. */
+    public static final File PACKS = join(GITLET_DIR, "packs");
+
+    /** The binary index file recording staged files and cached stat data. */
+    public static final File INDEXFILE = join(INDEX, "entries");
+
+    /** The serialized indexmap of repositories made before INDEXFILE. */
     public static final File INDEXMAP = join(INDEX, "indexMap");
 
-    /** The file that stores what files will be removed */
+    /** The serialized rm-set of repositories made before INDEXFILE. */
     public static final File RMSET = join(INDEX, "rmmap");
 
+    /** the socket on which a gitlet daemon serves this repository */
+    public static final File SOCKET = join(GITLET_DIR, "daemon.sock");
+
+    /** the change journal written by a running watcher. */
+    public static final File CHANGES = join(GITLET_DIR, "changes");
+
+    /** the working files as of a point in the change journal. */
+    public static final File SNAPSHOT = join(GITLET_DIR, "snapshot");
+
+    /** a directory for the files locked by concurrent commands. */
+    public static final File LOCKS = join(GITLET_DIR, "locks");
+
     /** the unix epoch date */
     public static final Date UNIX_EPOCH =  new Date(0);
     //00:00:00 UTC, Thursday, 1 January 1970
 
+    /** How long, in seconds, gc spares unreachable objects unless the
+     *  gc.grace setting says otherwise: two weeks. */
+    private static final long GC_GRACE = TimeUnit.DAYS.toSeconds(14);
+
+    /** Versions of a file at least this many bytes long are memory mapped
+     *  when merged, rather than read into memory. */
+    private static final long MAP_MERGE_ABOVE = 1 << 20;
+
     /** the HEAD branch, which refers to the current branch */
     private String HEAD;
 
@@ -56,276 +124,496 @@ public class Repository implements Serializable {
         } else {
             GITLET_DIR.mkdir();
             COMMITS.mkdir();
+            TREES.mkdir();
             HashMap<String, String> initMap = new HashMap<>();
-            Commit initial = new Commit("initial commit", null, UNIX_EPOCH, initMap, "master");
+            Commit initial = new Commit("initial commit", null, null, UNIX_EPOCH, Tree.fromMap(initMap), "master");
             String firstCommit = initial.saveCommit(COMMITS);
             HEAD = firstCommit;
             branchMap = new HashMap<>();
             branchMap.put("master", firstCommit);
             HEAD = "master";
             INDEX.mkdir();
-            try {
-                INDEXMAP.createNewFile();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-            try {
-                RMSET.createNewFile();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-            HashMap<String, String> iMap = new HashMap<>();
-            writeObject(INDEXMAP, iMap);
-            writeObject(RMSET, new HashSet<String>());
+            Index.read().write();
             BLOBS.mkdir();
-            try {
-                REPO.createNewFile();
+            PACKS.mkdir();
+            writeContents(CONFIG, "compression=deflate\ncompression.level=6\ngc.grace=" + GC_GRACE + "\n");
+            saveRepo();
+        }
+    }
+
+    /** Returns the settings in CONFIG, which are empty if there is none. */
+    static Properties config() {
+        Properties config = new Properties();
+        if (CONFIG.isFile()) {
+            try (InputStream in = new FileInputStream(CONFIG)) {
+                config.load(in);
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                throw new IllegalArgumentException(e.getMessage());
             }
-            writeObject(REPO, this);
         }
+        return config;
     }
 
+    /** Saves the repository, atomically and together with the other
+     *  updates of the running command. */
     public void saveRepo() {
-        writeObject(REPO, this);
+        ObjectCache.shared().invalidate(REPO.getName());
+        Journal.publish(REPO, serialize(this));
     }
 
     public String getHeadCommit() {
         return branchMap.get(HEAD);
     }
 
+    /** Returns a copy of the repository that the caller may change freely.
+     *  Only the serialized form is cached, so a command that changes its
+     *  copy and then fails before saveRepo() leaves no trace for the
+     *  commands that follow it in the same process. */
     public static Repository getRepo() {
-        return readObject(REPO, Repository.class);
+        byte[] pending = Journal.pending(REPO);
+        if (pending != null) {
+            return deserialize(pending, Repository.class);
+        }
+        long stamp = repoStamp();
+        byte[] bytes = ObjectCache.shared().get(REPO.getName(), stamp, byte[].class);
+        if (bytes == null) {
+            bytes = readContents(REPO);
+            ObjectCache.shared().put(REPO.getName(), stamp, bytes, bytes.length);
+        }
+        return deserialize(bytes, Repository.class);
+    }
+
+    /** Returns a stamp that changes whenever REPO is rewritten. */
+    private static long repoStamp() {
+        return ObjectCache.stamp(REPO);
     }
 
     public static void addFile(String name) {
-        Repository repo = getRepo();
-        File addFile = join(CWD, name);
-        if (!addFile.exists()) {
+        addFiles(List.of(name));
+    }
+
+    /** Stages every file named by PATHS, which may be file names,
+     *  directories (added recursively, with "." for the whole working
+     *  directory) or glob patterns.  Files are hashed in parallel and the
+     *  index is written once at the end.  When a directory or pattern is
+     *  given and a Watcher is running, the files are listed from its
+     *  snapshot, and files it saw no change to are not read at all. */
+    @SuppressWarnings("try")
+    public static void addFiles(List<String> paths) {
+        Index index = Index.read();
+        TreeMap<String, String> watched = null;
+        if (paths.stream().anyMatch(p -> !join(CWD, p).isFile()) && Watcher.isRunning()) {
+            watched = WorkingTree.current(index, name -> false).files;
+        }
+        List<String> names;
+        try (Metrics.Phase phase = Metrics.phase("expand paths")) {
+            names = expandPaths(paths, watched);
+        }
+        if (names == null) {
             System.out.println("File does not exist.");
             return;
         }
-        // read the removeset and the indexmapping
-        HashSet<String> rmMap = readObject(RMSET, HashSet.class);
-        HashMap<String, String> iMap = readObject(INDEXMAP, HashMap.class);
-        String fileHash = sha1(readContents(addFile)); // get the file's hash.
-        Commit parent = readObject(join(COMMITS, repo.getHeadCommit()), Commit.class);
-        //check if the added file already exists in the parent's filemap
-        //handle the cases where the parent or the parent map is null.
-        if (!(parent == null) && !(parent.map == null)) {
-            HashMap<String, String> parentMap = parent.map;
-            // if the file exists in the parent commit, remove the file from the rmset, if it is there, and then do nothing.
-            if (parentMap.containsKey(name) && (parentMap.get(name).equals(fileHash))) {
-                if (rmMap.contains(name)) {
-                    rmMap.remove(name);
-                    writeObject(RMSET, rmMap);
-                    return;
+        Repository repo = getRepo();
+        Commit parent = ObjectStore.readCommit(repo.getHeadCommit());
+        TreeMap<String, String> staged = index.staged();
+        Codec codec = Codec.configured();
+        long chunkAbove = ChunkedBlob.threshold();
+        List<Callable<String[]>> hashes = new ArrayList<>();
+        for (String name : names) {
+            String known = watched == null ? null : watched.get(name);
+            hashes.add(() -> hashForAdd(name, known, index, codec, chunkAbove));
+        }
+        List<String[]> results;
+        try (Metrics.Phase phase = Metrics.phase("hash")) {
+            results = inParallel(hashes);
+        }
+        for (String[] result : results) {
+            String name = result[0];
+            String fileHash = result[1];
+            File addFile = join(CWD, name);
+            File scratch = result[2] == null ? null : new File(result[2]);
+            // if the file is unchanged from the parent commit, unstage it and then do nothing.
+            if (fileHash.equals(parent.fileId(name))) {
+                if (scratch != null) {
+                    scratch.delete();
                 }
-                return;
+                index.unstage(name);
+                index.record(name, fileHash, addFile);
+                continue;
+            } else if (scratch == null && fileHash.equals(staged.get(name))) {
+                continue;
+            }
+            // now if we aren't in a special case, publish the copy unless the object is already stored.
+            File destination = join(INDEX, fileHash);
+            if (scratch == null && !destination.exists() && !ObjectStore.hasBlob(fileHash)) {
+                BlobFile.copyAndHash(addFile, destination, codec, chunkAbove);
+            } else if (scratch != null && (destination.exists() || ObjectStore.hasBlob(fileHash))) {
+                scratch.delete();
+            } else if (scratch != null && !scratch.renameTo(destination)) {
+                throw error("Could not stage %s.", name);
             }
+            if (destination.exists()) {
+                Journal.written(destination);
+            }
+            index.stage(name, fileHash, addFile);
+        }
+        index.write();
+    }
+
+    /** Returns the name, blob id and scratch copy (or null) of the working
+     *  file NAME.  If its id KNOWN is not null, or the stat data in INDEX
+     *  is unchanged since the file was last hashed, that id is used and no
+     *  copy is made; otherwise
+     *  the file is streamed once, hashing it while compressing it with
+     *  CODEC into a scratch file in the index, chunked if it is at least
+     *  CHUNKABOVE bytes long. */
+    private static String[] hashForAdd(String name, String known, Index index, Codec codec, long chunkAbove) {
+        File addFile = join(CWD, name);
+        String fileHash = known != null ? known : index.cachedId(name, addFile);
+        if (fileHash != null) {
+            return new String[] {name, fileHash, null};
         }
-        // now if we aren't in a special case, we copy the file to the index and add it to the iMap.
-        File destination = join(INDEX, fileHash);
-        if (destination.exists()) {
-            if (rmMap.contains(name)) {
-                rmMap.remove(name);
-                writeObject(RMSET, rmMap);
+        File scratch = scratchFile();
+        fileHash = BlobFile.copyAndHash(addFile, scratch, codec, chunkAbove);
+        return new String[] {name, fileHash, scratch.getPath()};
+    }
+
+    /** Returns the working-directory paths named by PATHS, in order and
+     *  without duplicates, or null if one of them names nothing or lies
+     *  outside the working directory or inside .gitlet.  File and directory operands are
+     *  normalized, so "./a" and "d/../a" both name "a".  Directories and
+     *  patterns are matched against the paths in WATCHED if it is not
+     *  null, and against the files on disk otherwise. */
+    private static List<String> expandPaths(List<String> paths, TreeMap<String, String> watched) {
+        TreeSet<String> names = new TreeSet<>();
+        for (String path : paths) {
+            File file = join(CWD, path);
+            String relative = relativePath(file);
+            if ((file.isFile() || file.isDirectory()) && relative == null) {
+                return null;
+            } else if (file.isFile()) {
+                names.add(relative);
+            } else if (file.isDirectory() && watched != null) {
+                names.addAll(relative.isEmpty() ? watched.keySet()
+                             : watched.subMap(relative + "/", relative + "0").keySet());
+            } else if (file.isDirectory()) {
+                names.addAll(filesUnder(file.toPath(), p -> true));
+            } else if (path.matches(".*[*?\\[{].*")) {
+                PathMatcher glob = FileSystems.getDefault().getPathMatcher("glob:" + path);
+                List<String> matches = new ArrayList<>();
+                if (watched != null) {
+                    watched.keySet().stream().filter(p -> glob.matches(Paths.get(p))).forEach(matches::add);
+                } else {
+                    matches = filesUnder(CWD.toPath(), p -> glob.matches(Paths.get(p)));
+                }
+                if (matches.isEmpty()) {
+                    return null;
+                }
+                names.addAll(matches);
+            } else {
+                return null;
             }
-            iMap.put(name, fileHash);
-            writeObject(INDEXMAP, iMap);
-            writeContents(destination, readContents(addFile));
-            return;
         }
+        return new ArrayList<>(names);
+    }
+
+    /** Returns the normalized path of FILE relative to CWD, separated by
+     *  '/', or null if it is not inside CWD or is inside .gitlet. */
+    private static String relativePath(File file) {
+        Path path = CWD.toPath().relativize(file.toPath().toAbsolutePath().normalize());
+        if (path.startsWith("..") || path.startsWith(GITLET_DIR.getName())) {
+            return null;
+        }
+        return path.toString().replace(File.separatorChar, '/');
+    }
+
+    /** Returns the paths, relative to CWD and separated by '/', of the plain
+     *  files under DIR that satisfy WANTED, skipping the .gitlet directory. */
+    private static List<String> filesUnder(Path dir, Predicate<String> wanted) {
+        List<String> result = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(dir.normalize())) {
+            walk.filter(p -> !p.startsWith(GITLET_DIR.toPath()) && Files.isRegularFile(p))
+                .map(p -> CWD.toPath().relativize(p).toString().replace(File.separatorChar, '/'))
+                .filter(wanted)
+                .forEach(result::add);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        return result;
+    }
+
+    /** Returns a new, empty scratch file in the index directory. */
+    private static File scratchFile() {
         try {
-            destination.createNewFile();
+            return File.createTempFile("add-", ".tmp", INDEX);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        writeContents(destination, readContents(addFile));
-        iMap.put(name, fileHash);
-        writeObject(INDEXMAP, iMap);
     }
 
     public static void removeFile(String name)  {
-        HashMap<String, String> iMap = readObject(INDEXMAP, HashMap.class);
-        if (iMap.containsKey(name)) {
-            iMap.remove(name);
-            writeObject(INDEXMAP, iMap);
+        Index index = Index.read();
+        if (index.staged().containsKey(name)) {
+            index.unstage(name);
+            index.write();
             return;
         } else {
-            File parent = join(COMMITS, getRepo().getHeadCommit());
-            Commit parentCommit = readObject(parent, Commit.class);
-            if(!parentCommit.map.containsKey(name)) {
+            Commit parentCommit = ObjectStore.readCommit(getRepo().getHeadCommit());
+            if(parentCommit.fileId(name) == null) {
                 System.out.println("No reason to remove the file");
                 return;
             }
         }
-        HashSet<String> rmset = readObject(RMSET, HashSet.class);
-        rmset.add(name);
-        writeObject(RMSET, rmset);
+        index.markRemoved(name);
+        index.write();
         File toRemove = join(CWD, name);
         if (toRemove.exists()) {
             toRemove.delete();
         }
     }
 
+    @SuppressWarnings("try")
     public static void makeNewCommit(String message) {
-        HashMap<String, String> iMap = readObject(INDEXMAP, HashMap.class);
-        Repository repo = readObject(REPO, Repository.class);
-        HashSet<String> RMMap = readObject(RMSET, HashSet.class);
+        Index index = Index.read();
+        TreeMap<String, String> iMap = index.staged();
+        Repository repo = getRepo();
+        TreeSet<String> RMMap = index.removed();
         if (iMap.isEmpty() && RMMap.isEmpty()) {
             System.out.println("No changes added to the commit.");
             return;
         }
-        //copies every file to be added into blobs.
+        //moves every file to be added into blobs; staged copies are already compressed.
         for (String fileName : iMap.keySet()) {
             File source = join(INDEX, iMap.get(fileName));
-            File dest = join(BLOBS, iMap.get(fileName));
+            File dest = ObjectStore.newLooseFile(BLOBS, iMap.get(fileName));
             if (!RMMap.contains(fileName)) {
-                if (!dest.exists()) {
-                    try {
-                        dest.createNewFile(); //nooo
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
+                if (!ObjectStore.hasBlob(iMap.get(fileName))) {
+                    if (!source.renameTo(dest)) {
+                        throw error("Could not store %s.", fileName);
                     }
-                    writeContents(dest, readContents(source));
+                    Journal.written(dest);
                 }
             }
             source.delete();
         }
         String parent = repo.getHeadCommit();
-        Commit newCommit = new Commit(message, parent, new Date(), repo.newCommitMap(), repo.HEAD);
+        String tree;
+        try (Metrics.Phase phase = Metrics.phase("build tree")) {
+            tree = repo.newCommitTree(index);
+        }
+        Commit newCommit = new Commit(message, parent, null, new Date(), tree, repo.HEAD);
         String newCommitHash = newCommit.saveCommit(COMMITS);
         repo.branchMap.put(repo.HEAD, newCommitHash);
-        writeObject(REPO, repo);
-        writeObject(INDEXMAP, new HashMap<String, String>());
-        writeObject(RMSET, new HashSet<String>());
-    }
-
-    private HashMap newCommitMap() {
-        String parent = getHeadCommit();
-        Commit parentCommit = readObject(join(COMMITS, parent), Commit.class);
-        HashMap<String, String> iMap = readObject(INDEXMAP, HashMap.class);
-        HashSet<String> rmMap = readObject(RMSET, HashSet.class);
-        HashMap<String, String> parentMap = parentCommit.map;
-        if (parentMap == null) {
-            return iMap;
-        }
-        Set<String> keySet = new HashSet<>(parentMap.keySet());
-        for (String fileName : keySet) { //remove based on rmset
-            if (rmMap.contains(fileName)) {
-                parentMap.remove(fileName);
-            }
-        }
-        for (String fileName : iMap.keySet()) { //add based on index map
-            parentMap.put(fileName, iMap.get(fileName));
+        repo.saveRepo();
+        index.clearStaging();
+        index.write();
+    }
+
+    /** Returns the id of the tree of the next commit: HEAD's tree with the
+     *  additions and removals staged in INDEX applied. */
+    private String newCommitTree(Index index) {
+        Commit parentCommit = ObjectStore.readCommit(getHeadCommit());
+        TreeMap<String, String> changes = new TreeMap<>();
+        for (String fileName : index.removed()) {
+            changes.put(fileName, null);
         }
-        return parentMap;
+        changes.putAll(index.staged());
+        return Tree.update(parentCommit.treeId(), changes);
     }
 
     public static void log() {
-        Repository repo = readObject(REPO, Repository.class);
-        Commit displayCommit = readObject(join(COMMITS, repo.getHeadCommit()), Commit.class);
-        while (displayCommit != null) {
-            System.out.print(displayCommit);
-            if (displayCommit.parent == null) {
-                return;
+        log(-1, 0, Long.MIN_VALUE, Long.MAX_VALUE, false);
+    }
+
+    /** Prints the first-parent history of HEAD, newest first, one line per
+     *  commit if ONELINE.  Commits dated after UNTIL are passed over, the
+     *  walk ends at the first commit dated before SINCE (both in
+     *  milliseconds), and of the rest the first SKIP are left out and at
+     *  most LIMIT are printed, or all of them if LIMIT is negative.
+     *  History is followed through the commits themselves, so only the
+     *  commits up to the last one printed are read, and the output is
+     *  written in one buffered batch. */
+    @SuppressWarnings("try")
+    public static void log(int limit, int skip, long since, long until, boolean oneline) {
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, BUFFER_SIZE), false);
+        int shown = 0;
+        try (Metrics.Phase phase = Metrics.phase("walk")) {
+            for (String id = getRepo().getHeadCommit(); id != null && shown != limit; ) {
+                Commit commit = ObjectStore.readCommit(id);
+                id = commit.parent;
+                long date = commit.date.getTime();
+                if (date < since) {
+                    break;
+                } else if (date > until) {
+                    continue;
+                } else if (skip > 0) {
+                    skip -= 1;
+                    continue;
+                }
+                out.print(oneline ? commit.oneline() : commit);
+                shown += 1;
             }
-            displayCommit = readObject(join(COMMITS, displayCommit.parent), Commit.class);
         }
+        out.flush();
     }
 
+    /** Prints the branches, the staging area, and the working files that
+     *  differ from it, each section in sorted order.  The working directory
+     *  is scanned in parallel by WorkingTree, hashing only tracked or staged
+     *  files whose cached stat data is out of date, and only looking at
+     *  files that changed since the last scan while a Watcher runs.  The
+     *  stat data of the files it hashed is saved to the index for next
+     *  time. */
+    @SuppressWarnings("try")
     public static void status() {
         Repository repo = getRepo();
-        System.out.println("=== Branches ===");
-        System.out.println("*" + repo.HEAD);
-        for (String branch : repo.branchMap.keySet()) {
-            if (!branch.equals(repo.HEAD)) {
-                System.out.print(branch + "\n");
+        Index index = Index.read();
+        TreeMap<String, String> staged = index.staged();
+        TreeSet<String> removed = index.removed();
+        HashMap<String, String> tracked = ObjectStore.readCommit(repo.getHeadCommit()).files();
+        WorkingTree.Scan scan;
+        try (Metrics.Phase phase = Metrics.phase("scan")) {
+            scan = WorkingTree.current(index, name -> staged.containsKey(name)
+                || (tracked.containsKey(name) && !removed.contains(name)));
+        }
+
+        TreeMap<String, String> modifications = new TreeMap<>();
+        TreeSet<String> untracked = new TreeSet<>();
+        try (Metrics.Phase phase = Metrics.phase("compare")) {
+            for (Map.Entry<String, String> file : scan.files.entrySet()) {
+                String name = file.getKey();
+                String expected = staged.containsKey(name) ? staged.get(name) : tracked.get(name);
+                if (file.getValue() == null) {
+                    untracked.add(name);
+                } else if (!file.getValue().equals(expected)) {
+                    modifications.put(name, "modified");
+                }
+            }
+            for (String name : staged.keySet()) {
+                if (!scan.files.containsKey(name)) {
+                    modifications.put(name, "deleted");
+                }
             }
+            for (String name : tracked.keySet()) {
+                if (!scan.files.containsKey(name) && !removed.contains(name) && !staged.containsKey(name)) {
+                    modifications.put(name, "deleted");
+                }
+            }
+        }
+
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, BUFFER_SIZE), false);
+        out.println("=== Branches ===");
+        for (String branch : new TreeSet<>(repo.branchMap.keySet())) {
+            out.println((branch.equals(repo.HEAD) ? "*" : "") + branch);
+        }
+        out.println();
+        out.println("=== Staged Files ===");
+        for (String fileName : staged.keySet()) {
+            out.println(fileName);
         }
-        System.out.print("\n");
-        System.out.println("=== Staged Files ===");
-        for (Object fileName : readObject(INDEXMAP, HashMap.class).keySet()) {
-            System.out.println(fileName);
+        out.println();
+        out.println("=== Removed Files ===");
+        for (String fileName : removed) {
+            out.println(fileName);
         }
-        System.out.print("\n");
-        System.out.println("=== Removed Files ===");
-        for (Object fileName : readObject(RMSET, HashSet.class)) {
-            System.out.println(fileName);
+        out.println();
+        out.println("=== Modifications Not Staged For Commit ===");
+        for (Map.Entry<String, String> file : modifications.entrySet()) {
+            out.println(file.getKey() + " (" + file.getValue() + ")");
         }
-        System.out.print("\n");
-        System.out.println("=== Modifications Not Staged For Commit ===\n");
-        System.out.println("=== Untracked Files ===\n");
+        out.println();
+        out.println("=== Untracked Files ===");
+        for (String fileName : untracked) {
+            out.println(fileName);
+        }
+        out.println();
+        out.flush();
 
+        try (Metrics.Phase phase = Metrics.phase("update index")) {
+            for (String name : scan.hashed) {
+                index.record(name, scan.files.get(name), join(CWD, name));
+            }
+            index.write();
+        }
     }
 
     public static void globalLog() {
-        for (String file : Utils.plainFilenamesIn(COMMITS)) {
-            File src = join(COMMITS, file);
-            Commit commit = readObject(src, Commit.class);
+        for (String file : ObjectStore.commitIds()) {
+            Commit commit = ObjectStore.readCommit(file);
             System.out.print(commit);
         }
     }
 
     public static void find(String msg) {
-        boolean found = false;
-        for (String file : Utils.plainFilenamesIn(COMMITS)) {
-            File src = join(COMMITS, file);
-            Commit commit = readObject(src, Commit.class);
-            if (msg.equals(commit.message)) {
-                System.out.println(file);
-                found = true;
-            }
+        find(msg, "exact");
+    }
+
+    /** Prints the ids of the commits whose message matches MSG, where MODE
+     *  is "exact", "prefix" (messages starting with MSG) or "token"
+     *  (messages containing every word of MSG, ignoring case). */
+    public static void find(String msg, String mode) {
+        MessageIndex index = MessageIndex.read();
+        List<String> ids;
+        switch (mode) {
+            case "prefix":
+                ids = index.prefix(msg);
+                break;
+            case "token":
+                ids = index.words(msg);
+                break;
+            default:
+                ids = index.exact(msg);
+                break;
         }
-        if (!found) {
+        for (String id : ids) {
+            System.out.println(id);
+        }
+        if (ids.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
     }
 
     public static void checkoutByCommit(String id, String filename) {
-        File commitFile = join(COMMITS, id);
-        if (!commitFile.exists()) {
+        if (!ObjectStore.hasCommit(id)) {
             System.out.println("No commit with that id exists.");
             return;
         }
-        Commit commit = readObject(commitFile, Commit.class);
-        if (!commit.map.containsKey(filename)) {
+        Commit commit = ObjectStore.readCommit(id);
+        String srcHash = commit.fileId(filename);
+        if (srcHash == null) {
             System.out.println("File does not exist in that commit.");
             return;
         }
-        String srcHash = commit.map.get(filename);
-        File src = join(BLOBS, srcHash);
         File dest = join(CWD, filename);
         if (!dest.exists()) {
+            dest.getParentFile().mkdirs();
             try {
                 dest.createNewFile();
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
-        writeContents(dest, readContents(src));
+        writeContents(dest, ObjectStore.readBlob(srcHash));
     }
 
     public static void checkoutSingle(String filename) {
         File dest = join(CWD, filename);
         if (!dest.exists()) {
+            dest.getParentFile().mkdirs();
             try {
                 dest.createNewFile();
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
-        Repository repo = readObject(REPO, Repository.class);
-        Commit head = readObject(join(COMMITS, repo.getHeadCommit()), Commit.class);
-        String filehash = head.map.get(filename);
-        File src = join(BLOBS, filehash);
-        if (!src.exists()) {
+        Repository repo = getRepo();
+        Commit head = ObjectStore.readCommit(repo.getHeadCommit());
+        String filehash = head.fileId(filename);
+        if (filehash == null || !ObjectStore.hasBlob(filehash)) {
             System.out.println("File does not exist in that commit.");
             return;
         }
-        writeContents(dest, readContents(src));
+        writeContents(dest, ObjectStore.readBlob(filehash));
     }
 
     public static void branch(String branchName) {
@@ -351,7 +639,7 @@ public class Repository implements Serializable {
             System.out.println("No need to checkout the current branch.");
             return;
         }
-        Commit branchCommit = readObject(join(COMMITS, repo.branchMap.get(branchName)), Commit.class);
+        Commit branchCommit = ObjectStore.readCommit(repo.branchMap.get(branchName));
         copyToCWD(branchCommit);
         repo.HEAD = branchName;
         repo.saveRepo();
@@ -376,33 +664,34 @@ public class Repository implements Serializable {
             commitID = Commit.findFullID(commitID);
         }
         Repository repo = getRepo();
-        File src = join(COMMITS, commitID);
-        if (!src.exists()) {
+        if (!ObjectStore.hasCommit(commitID)) {
             System.out.println("No commit with that id exists.");
             return;
         }
-        Commit ourCommit = readObject(src, Commit.class);
+        Commit ourCommit = ObjectStore.readCommit(commitID);
         copyToCWD(ourCommit);
         repo.HEAD = ourCommit.branch;
         repo.branchMap.put(ourCommit.branch, commitID);
-        writeObject(INDEXMAP, new HashMap<String, String>());
-        writeObject(RMSET, new HashSet<String>());
+        Index index = Index.read();
+        index.clearStaging();
+        index.write();
         repo.saveRepo();
     }
 
+    @SuppressWarnings("try")
     private static void copyToCWD(Commit commit) {
         Repository repo = getRepo();
-        List<String> cwdList = plainFilenamesIn(CWD);
-        Commit headCommit = readObject(join(COMMITS, repo.getHeadCommit()), Commit.class);
+        List<String> cwdList = filesUnder(CWD.toPath(), p -> true);
+        Commit headCommit = ObjectStore.readCommit(repo.getHeadCommit());
         for (String fileName : cwdList) {
-            if (commit.map.containsKey(fileName) && !headCommit.map.containsKey(fileName)) {
+            if (commit.files().containsKey(fileName) && !headCommit.files().containsKey(fileName)) {
                 System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
                 return;
             }
         }
         String head = repo.getHeadCommit();
-        HashMap<String, String> HEADMap = readObject(join(COMMITS, head), Commit.class).map;
-        HashMap<String, String> commitMap = commit.map;
+        HashMap<String, String> HEADMap = ObjectStore.readCommit(head).files();
+        HashMap<String, String> commitMap = commit.files();
         for (String fileName : HEADMap.keySet()) {
             if (!commitMap.containsKey(fileName)) {
                 File toDelete = join(CWD, fileName);
@@ -411,93 +700,86 @@ public class Repository implements Serializable {
                 }
             }
         }
+        // plan the checkout: files whose stat data shows they already hold
+        // their blob are unchanged; the rest are written in parallel.
+        Index index = Index.read();
+        List<Callable<String>> writes = new ArrayList<>();
+        List<String> planned = new ArrayList<>();
         for (String fileName : commitMap.keySet()) {
             File dest = join(CWD, fileName);
-            File src = join(BLOBS, commitMap.get(fileName));
-            if (!dest.exists()) {
-                try {
-                    dest.createNewFile();
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
+            String id = commitMap.get(fileName);
+            if (id.equals(index.cachedId(fileName, dest))) {
+                continue;
             }
-            writeContents(dest, readContents(src));
+            boolean sameAsHead = id.equals(HEADMap.get(fileName));
+            planned.add(fileName);
+            writes.add(() -> checkoutFile(id, dest, sameAsHead));
+        }
+        try (Metrics.Phase phase = Metrics.phase("write files")) {
+            inParallel(writes);
         }
+        for (int i = 0; i < planned.size(); i += 1) {
+            String fileName = planned.get(i);
+            index.record(fileName, commitMap.get(fileName), join(CWD, fileName));
+        }
+        index.write();
     }
 
-    public static Commit lastCommonAncestor(Commit commit1, Commit commit2) {
-        HashSet<Commit> ancestors1 = new HashSet<>();
-        HashSet<Commit> ancestors2 = new HashSet<>();
-        ancestors1.add(commit1);
-        ancestors2.add(commit2);
-        while (!commit1.toString().equals(commit2.toString())) {
-            for (Commit curr : ancestors1 ) {
-                if (ancestors2.contains(curr)) {
-                    return curr;
-                }
-            }
-            commit1 = Collections.max(ancestors1);
-            commit2 = Collections.max(ancestors2);
-            if (commit1.date.compareTo(commit2.date) < 0) {
-                ancestors2.remove(commit2);
-                if (commit2.parent2 != null) {
-                    ancestors2.add(commit2.getParent2());
-                }
-                ancestors2.add(commit2.getParent());
-            } else {
-                ancestors1.remove(commit1);
-                if (commit1.parent2 != null) {
-                    ancestors1.add(commit1.getParent2());
-                }
-                ancestors1.add(commit1.getParent());
-            }
+    /** Makes DEST hold the blob ID and returns ID.  When SAMEASHEAD, the
+     *  blob is unchanged from HEAD and DEST is only rewritten if its
+     *  contents differ. */
+    private static String checkoutFile(String id, File dest, boolean sameAsHead) {
+        if (sameAsHead && dest.isFile() && id.equals(sha1(dest))) {
+            return id;
         }
-        return commit1;
+        dest.getParentFile().mkdirs();
+        ObjectStore.copyBlob(id, dest);
+        return id;
     }
 
-    private static int lcaCheck(Commit head, Commit other) {
-        boolean headMoved = false;
-        boolean otherMoved = false;
-        while (!head.toString().equals(other.toString())) {
-            if (head.date.compareTo(other.date) < 0) {
-                other = other.getParent();
-                otherMoved = true;
-            } else {
-                head = head.getParent();
-                headMoved = true;
-            }
-        }
-        if (headMoved && otherMoved) {
-            return 0;
-        } else if (headMoved && !otherMoved) {
+    /** Returns the id of the latest common ancestor of the commits HEAD and
+     *  OTHER, found by walking the commit graph. */
+    public static String lastCommonAncestor(String head, String other) {
+        return CommitGraph.read().mergeBase(head, other);
+    }
+
+    private static int lcaCheck(String head, String other, String lca) {
+        if (head.equals(other)) {
+            return 3;
+        } else if (lca.equals(other)) {
             return 1;
-        } else if (!headMoved && otherMoved) {
+        } else if (lca.equals(head)) {
             return 2;
         } else {
-            return 3;
+            return 0;
         }
     }
 
+    @SuppressWarnings("try")
     public static void merge(String otherBranch) throws IOException {
         Repository repo = getRepo();
         if (mergeErrorCheck(otherBranch)) { //order
             return;
         }
-        boolean conflict = false;
-        Commit headCommit = readObject(join(COMMITS, repo.getHeadCommit()), Commit.class);
+        String headID = repo.getHeadCommit();
+        Commit headCommit = ObjectStore.readCommit(headID);
         String otherID = repo.branchMap.get(otherBranch);
-        Commit otherCommit = readObject(join(COMMITS, otherID), Commit.class);
-        HashMap<String, String> headMap = headCommit.map;
-        HashMap<String, String> otherMap = otherCommit.map;
-        Commit lca = Repository.lastCommonAncestor(headCommit, otherCommit); // update lca
-        List<String> fileList = Utils.plainFilenamesIn(CWD);
+        Commit otherCommit = ObjectStore.readCommit(otherID);
+        HashMap<String, String> headMap = headCommit.files();
+        HashMap<String, String> otherMap = otherCommit.files();
+        String lcaID;
+        try (Metrics.Phase phase = Metrics.phase("merge base")) {
+            lcaID = Repository.lastCommonAncestor(headID, otherID);
+        }
+        Commit lca = ObjectStore.readCommit(lcaID);
+        List<String> fileList = filesUnder(CWD.toPath(), p -> true);
         for (String fileName : fileList) {
             if (!headMap.containsKey(fileName) && otherCommit.isModified(fileName, lca)) {
                 System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
                 return;
             }
         }
-        int lcaCheck = lcaCheck(headCommit, otherCommit);
+        int lcaCheck = lcaCheck(headID, otherID, lcaID);
         switch(lcaCheck) {
             case 1:
                 System.out.println("Given branch is an ancestor of the current branch.");
@@ -510,105 +792,209 @@ public class Repository implements Serializable {
                 break;
         }
 
-        for (String file : headMap.keySet()) {
-            boolean headModified = headCommit.isModified(file, lca);
-            boolean otherModified = otherCommit.isModified(file, lca);
-            if (handleMergeFile(file, headCommit, otherID, lca)) {
-                conflict = true;
+        // plan every path in one pass over the sorted union of the three
+        // maps, then carry out the plan with one index update.
+        HashMap<String, String> lcaMap = lca.files();
+        TreeSet<String> names = new TreeSet<>(headMap.keySet());
+        names.addAll(otherMap.keySet());
+        names.addAll(lcaMap.keySet());
+        List<String> removals = new ArrayList<>();
+        List<String> takes = new ArrayList<>();
+        List<String> conflicting = new ArrayList<>();
+        for (String name : names) {
+            String headId = headMap.get(name);
+            String otherId = otherMap.get(name);
+            String lcaId = lcaMap.get(name);
+            if (Objects.equals(otherId, lcaId) || Objects.equals(otherId, headId)) {
+                continue;
+            } else if (!Objects.equals(headId, lcaId)) {
+                conflicting.add(name);
+            } else if (otherId == null) {
+                removals.add(name);
+            } else {
+                takes.add(name);
             }
-            otherMap.remove(file);
         }
-        for (String filename : otherMap.keySet()) {
-            if (handleMergeFile(filename, headCommit, otherID, lca)) {
-                conflict = true;
-            }
+
+        Index index = Index.read();
+        List<Callable<String[]>> writes = new ArrayList<>();
+        for (String name : takes) {
+            writes.add(() -> new String[] {name, checkoutFile(otherMap.get(name), join(CWD, name), false), null});
+        }
+        for (String name : conflicting) {
+            writes.add(() -> mergeFile(name, headCommit, otherCommit, lca));
+        }
+        boolean conflict = false;
+        List<String[]> results;
+        try (Metrics.Phase phase = Metrics.phase("merge files")) {
+            results = inParallel(writes);
         }
-        Repository.makeMergeCommit(repo.HEAD, otherBranch);
+        for (String[] result : results) {
+            index.stage(result[0], result[1], join(CWD, result[0]));
+            conflict |= result[2] != null;
+        }
+        for (String name : removals) {
+            index.markRemoved(name);
+            join(CWD, name).delete();
+        }
+        Repository.makeMergeCommit(repo.HEAD, otherBranch, index);
         if (conflict) {
             System.out.println("Encountered a merge conflict.");
         }
     }
 
-    private static boolean handleMergeFile(String fileName, Commit headCommit, String otherID, Commit lca) throws IOException {
-        Commit otherCommit = readObject(join(COMMITS, otherID),  Commit.class);
-        boolean headModified = headCommit.isModified(fileName, lca);
-        boolean otherModified = otherCommit.isModified(fileName, lca);
-        boolean conflict = false;
-        HashMap<String, String> headMap = headCommit.map;
-        HashMap<String, String> otherMap = otherCommit.map;
-        if (otherModified && !headModified) {
-            if (!otherMap.containsKey(fileName)) {
-                Repository.removeFile(fileName);
-            } else {
-                checkoutByCommit(otherID, fileName);
-                addFile(fileName);
-            }
-        } else if (otherModified && headModified) {
-            conflict = true;
-            byte[] otherContents;
-            byte[] headContents;
-            if (!otherMap.containsKey(fileName)) {
-                otherContents = new byte[0];
-            } else {
-                File otherFile = join(BLOBS, otherMap.get(fileName));
-                otherContents = readContents(otherFile);
+    /** Merges the versions of NAME in HEAD and OTHER line by line against
+     *  their version in LCA, writing the result straight to the working
+     *  file and then storing it as a blob.  Returns the name, the blob id,
+     *  and null if the merge was clean or "conflict" if it was not. */
+    private static String[] mergeFile(String name, Commit head, Commit other, Commit lca) {
+        List<File> scratch = new ArrayList<>();
+        try {
+            ByteBuffer base = versionOf(lca, name, scratch);
+            ByteBuffer ours = versionOf(head, name, scratch);
+            ByteBuffer theirs = versionOf(other, name, scratch);
+            File dest = join(CWD, name);
+            dest.getParentFile().mkdirs();
+            boolean conflict;
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(dest), BUFFER_SIZE)) {
+                conflict = LineMerge.merge(base, ours, theirs, out);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
             }
-            if (!headMap.containsKey(fileName)) {
-                headContents = new byte[0];
-            } else {
-                File headFile = join(BLOBS, headMap.get(fileName));
-                headContents = readContents(headFile);
+            File stored = scratchFile();
+            scratch.add(stored);
+            String id = BlobFile.copyAndHash(dest, stored, Codec.configured(), ChunkedBlob.threshold());
+            if (!ObjectStore.hasBlob(id)) {
+                File loose = ObjectStore.newLooseFile(BLOBS, id);
+                if (!stored.renameTo(loose)) {
+                    throw error("Could not store %s.", name);
+                }
+                Journal.written(loose);
             }
-            File dest = join(CWD, fileName);
-            if (!dest.exists()) {
-                dest.createNewFile();
+            return new String[] {name, id, conflict ? "conflict" : null};
+        } finally {
+            for (File file : scratch) {
+                file.delete();
             }
-            writeContents(dest, "<<<<<<< HEAD\n", headContents, "=======\n", otherContents, ">>>>>>>\n");
-            addFile(dest.getName());
         }
-        return conflict;
     }
 
-    private static void makeMergeCommit(String head, String other) {
+    /** Returns the contents of NAME in COMMIT, or nothing if it is not
+     *  tracked there.  A loose blob of at least MAP_MERGE_ABOVE bytes is
+     *  streamed into a scratch file, added to SCRATCH, which is memory
+     *  mapped instead of being read onto the heap; packed blobs are
+     *  already held in memory and are used as they are. */
+    private static ByteBuffer versionOf(Commit commit, String name, List<File> scratch) {
+        String id = commit.fileId(name);
+        if (id == null) {
+            return ByteBuffer.allocate(0);
+        }
+        File loose = ObjectStore.looseFile(BLOBS, id);
+        if (!loose.exists() || BlobFile.rawSize(loose) < MAP_MERGE_ABOVE) {
+            return ByteBuffer.wrap(ObjectStore.readBlob(id));
+        }
+        File copy = scratchFile();
+        scratch.add(copy);
+        ObjectStore.copyBlob(id, copy);
+        try (FileChannel channel = FileChannel.open(copy.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    private static void makeMergeCommit(String head, String other, Index index) {
         String message = "Merged " + other + " into " + head + ".";
-        HashMap<String, String> iMap = readObject(INDEXMAP, HashMap.class);
-        Repository repo = readObject(REPO, Repository.class);
-        HashSet<String> RMMap = readObject(RMSET, HashSet.class);
+        TreeMap<String, String> iMap = index.staged();
+        Repository repo = getRepo();
+        TreeSet<String> RMMap = index.removed();
         if (iMap.isEmpty() && RMMap.isEmpty()) {
             System.out.println("No changes added to the commit.");
             return;
         }
-        //copies every file to be added into blobs.
+        //moves every file to be added into blobs; staged copies are already compressed.
         for (String fileName : iMap.keySet()) {
             File source = join(INDEX, iMap.get(fileName));
-            File dest = join(BLOBS, iMap.get(fileName));
+            File dest = ObjectStore.newLooseFile(BLOBS, iMap.get(fileName));
             if (!RMMap.contains(fileName)) {
-                if (!dest.exists()) {
-                    try {
-                        dest.createNewFile(); //nooo
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
+                if (!ObjectStore.hasBlob(iMap.get(fileName))) {
+                    if (!source.renameTo(dest)) {
+                        throw error("Could not store %s.", fileName);
                     }
-                    writeContents(dest, readContents(source));
+                    Journal.written(dest);
                 }
             }
             source.delete();
         }
         String parent = repo.getHeadCommit();
         String parent2 = repo.branchMap.get(other);
-        Commit newCommit = new Commit(message, parent, parent2, new Date(), repo.newCommitMap(), repo.HEAD);
+        Commit newCommit = new Commit(message, parent, parent2, new Date(), repo.newCommitTree(index), repo.HEAD);
         String newCommitHash = newCommit.saveCommit(COMMITS);
         repo.branchMap.put(repo.HEAD, newCommitHash);
-        writeObject(REPO, repo);
-        writeObject(INDEXMAP, new HashMap<String, String>());
-        writeObject(RMSET, new HashSet<String>());
+        repo.saveRepo();
+        index.clearStaging();
+        index.write();
+    }
+
+    /** Moves loose objects stored by older versions of gitlet into the
+     *  fan-out layout, and gives blobs stored without a header one. */
+    public static void migrate() {
+        int moved = ObjectStore.migrate();
+        System.out.println("Migrated " + moved + " objects.");
+    }
+
+    /** Prints how much space the loose blobs take and how well they have
+     *  compressed. */
+    public static void stats() {
+        long[] stats = ObjectStore.looseBlobStats();
+        System.out.println("Loose blobs: " + stats[0]);
+        System.out.println("Stored size: " + stats[1] + " bytes");
+        System.out.println("Uncompressed size: " + stats[2] + " bytes");
+        if (stats[1] > 0) {
+            System.out.printf("Compression ratio: %.2f%n", (double) stats[2] / stats[1]);
+        }
+    }
+
+    public static void repack() {
+        ObjectStore.repack();
+    }
+
+    /** Deletes the objects no branch can reach and the staged copies the
+     *  index no longer uses, sparing those modified in the last GRACE
+     *  seconds (or gc.grace seconds if GRACE is null), and reports how
+     *  much space that freed. */
+    @SuppressWarnings("try")
+    public static void gc(String grace) {
+        String setting = grace != null ? grace : config().getProperty("gc.grace", String.valueOf(GC_GRACE));
+        long seconds;
+        try {
+            seconds = Long.parseLong(setting.trim());
+        } catch (NumberFormatException e) {
+            seconds = -1;
+        }
+        if (seconds < 0) {
+            throw error("Bad grace period: %s.", setting);
+        }
+        Repository repo = getRepo();
+        Collection<String> staged = Index.read().staged().values();
+        long before = GarbageCollector.storedSize();
+        GarbageCollector collector = new GarbageCollector(TimeUnit.SECONDS.toMillis(seconds));
+        try (Metrics.Phase phase = Metrics.phase("mark")) {
+            collector.mark(repo.branchMap.values(), staged);
+        }
+        try (Metrics.Phase phase = Metrics.phase("sweep")) {
+            collector.sweep(staged);
+        }
+        long reclaimed = before - GarbageCollector.storedSize();
+        System.out.printf("Removed %d commits, %d trees, %d blobs, %d chunks and %d staged files.%n",
+                          collector.removedCommits, collector.removedTrees, collector.removedBlobs,
+                          collector.removedChunks, collector.removedStaged);
+        System.out.println("Reclaimed " + Math.max(reclaimed, 0) + " bytes.");
     }
 
     private static boolean mergeErrorCheck(String branchName) {
         Repository repo = getRepo();
-        HashMap<String, String> iMap = readObject(INDEXMAP, HashMap.class);
-        HashSet<String> rmSet = readObject(RMSET, HashSet.class);
-        if (!iMap.isEmpty() || !rmSet.isEmpty()) {
+        if (!Index.read().isClean()) {
             System.out.println("You have uncommitted changes.");
             return true;
         }
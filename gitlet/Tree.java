@@ -0,0 +1,199 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** A tree object: the contents of one directory of a commit, naming the
+ *  blob of each file in it and the tree of each subdirectory.
+ *
+ *  Trees are content addressed like blobs, so a directory that is the same
+ *  in two commits is stored once and shared, and making a commit only
+ *  writes the trees on the paths to the files that changed.  An encoded
+ *  tree is a magic number, a version byte, the number of entries and then
+ *  the entries in name order, each a kind byte, the name as a
+ *  length-prefixed UTF-8 string and the 20-byte id.
+ *  @author beckettq
+ */
+class Tree {
+
+    /** Identifies an encoded tree. */
+    private static final int MAGIC = 0x47545245; // "GTRE"
+    /** The tree format version. */
+    private static final int VERSION = 1;
+    /** Entry kind of a file. */
+    private static final int FILE = 0;
+    /** Entry kind of a subdirectory. */
+    private static final int DIR = 1;
+
+    /** Blob ids of the files in this directory, by name. */
+    private final TreeMap<String, String> files = new TreeMap<>();
+    /** Tree ids of the subdirectories of this directory, by name. */
+    private final TreeMap<String, String> dirs = new TreeMap<>();
+
+    /** Returns the id of the tree holding the files of FLAT, a map from
+     *  '/'-separated path to blob id, writing any trees that are new. */
+    static String fromMap(Map<String, String> flat) {
+        return update(null, new TreeMap<>(flat));
+    }
+
+    /** Returns the id of the tree ROOT with CHANGES applied, where CHANGES
+     *  maps '/'-separated paths to their new blob ids, or to null for paths
+     *  that are removed.  ROOT may be null for an empty tree.  Only the
+     *  trees on the paths to changed files are rewritten; the rest are
+     *  shared with ROOT. */
+    static String update(String root, SortedMap<String, String> changes) {
+        String id = updateTree(root, changes);
+        return id == null ? write(new Tree()) : id;
+    }
+
+    /** As update, but returns null if the result is empty. */
+    private static String updateTree(String root, SortedMap<String, String> changes) {
+        Tree tree = root == null ? new Tree() : ObjectStore.readTree(root);
+        Tree result = new Tree();
+        result.files.putAll(tree.files);
+        result.dirs.putAll(tree.dirs);
+        TreeMap<String, TreeMap<String, String>> byDir = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                byDir.computeIfAbsent(path.substring(0, slash), d -> new TreeMap<>())
+                    .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() == null) {
+                result.files.remove(path);
+            } else {
+                result.files.put(path, change.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> dir : byDir.entrySet()) {
+            String child = updateTree(result.dirs.get(dir.getKey()), dir.getValue());
+            if (child == null) {
+                result.dirs.remove(dir.getKey());
+            } else {
+                result.dirs.put(dir.getKey(), child);
+            }
+        }
+        if (result.files.isEmpty() && result.dirs.isEmpty()) {
+            return null;
+        }
+        if (root != null && result.files.equals(tree.files) && result.dirs.equals(tree.dirs)) {
+            return root;
+        }
+        return write(result);
+    }
+
+    /** Stores TREE unless it is already stored, returning its id. */
+    private static String write(Tree tree) {
+        byte[] bytes = tree.encode();
+        String id = sha1(bytes);
+        if (!ObjectStore.hasTree(id)) {
+            ObjectStore.writeTree(id, bytes);
+        }
+        ObjectCache.shared().put(id, tree, bytes.length);
+        return id;
+    }
+
+    /** Returns the blob id of the file at PATH in the tree ROOT, or null if
+     *  there is no such file.  Only the trees along PATH are read. */
+    static String lookup(String root, String path) {
+        Tree tree = ObjectStore.readTree(root);
+        int slash;
+        while ((slash = path.indexOf('/')) >= 0) {
+            String dir = tree.dirs.get(path.substring(0, slash));
+            if (dir == null) {
+                return null;
+            }
+            tree = ObjectStore.readTree(dir);
+            path = path.substring(slash + 1);
+        }
+        return tree.files.get(path);
+    }
+
+    /** Returns every file in the tree ROOT, from '/'-separated path to blob
+     *  id. */
+    static HashMap<String, String> flatten(String root) {
+        HashMap<String, String> result = new HashMap<>();
+        flatten(root, "", result);
+        return result;
+    }
+
+    private static void flatten(String id, String prefix, HashMap<String, String> result) {
+        Tree tree = ObjectStore.readTree(id);
+        for (Map.Entry<String, String> file : tree.files.entrySet()) {
+            result.put(prefix + file.getKey(), file.getValue());
+        }
+        for (Map.Entry<String, String> dir : tree.dirs.entrySet()) {
+            flatten(dir.getValue(), prefix + dir.getKey() + "/", result);
+        }
+    }
+
+    /** Returns the ids of the subtrees of this tree. */
+    Iterable<String> subtrees() {
+        return dirs.values();
+    }
+
+    /** Returns the ids of the blobs directly in this tree. */
+    Iterable<String> blobs() {
+        return files.values();
+    }
+
+    /** Returns the canonical encoding of this tree. */
+    byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(files.size() + dirs.size());
+            // merge the two maps so entries are in name order.
+            TreeMap<String, Integer> kinds = new TreeMap<>();
+            files.keySet().forEach(name -> kinds.put(name, FILE));
+            dirs.keySet().forEach(name -> kinds.put(name, DIR));
+            for (Map.Entry<String, Integer> entry : kinds.entrySet()) {
+                String name = entry.getKey();
+                byte[] encodedName = name.getBytes(StandardCharsets.UTF_8);
+                out.writeByte(entry.getValue());
+                out.writeInt(encodedName.length);
+                out.write(encodedName);
+                out.write(fromHex(entry.getValue() == FILE ? files.get(name) : dirs.get(name)));
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw error("Internal error encoding tree.");
+        }
+    }
+
+    /** Returns the tree encoded as BYTES. */
+    static Tree decode(byte[] bytes) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw error("Corrupt tree.");
+            }
+            Tree tree = new Tree();
+            int count = in.readInt();
+            byte[] id = new byte[UID_LENGTH / 2];
+            for (int i = 0; i < count; i += 1) {
+                int kind = in.readByte();
+                byte[] name = new byte[in.readInt()];
+                in.readFully(name);
+                in.readFully(id);
+                (kind == DIR ? tree.dirs : tree.files).put(new String(name, StandardCharsets.UTF_8), toHex(id));
+            }
+            return tree;
+        } catch (IOException e) {
+            throw error("Corrupt tree.");
+        }
+    }
+}
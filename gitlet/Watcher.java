@@ -0,0 +1,309 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static gitlet.Repository.CHANGES;
+import static gitlet.Repository.CWD;
+import static gitlet.Repository.GITLET_DIR;
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/** A long-running process that records which working files change, so
+ *  that status and add need only look at those.
+ *
+ *  The watcher registers every directory of the working tree with a
+ *  WatchService and appends the path of each change to CHANGES.  The file
+ *  starts with a magic number, a version and a session number chosen when
+ *  the watcher starts; each record is a kind byte and a length-prefixed
+ *  UTF-8 path.  A position in a session is a token: everything that
+ *  changed after it is listed after it.  The watcher holds a lock on
+ *  CHANGES while it runs, and starts a new session when the file grows
+ *  past MAX_LENGTH, so readers holding an old token fall back to a full
+ *  scan.
+ *
+ *  Events arrive a little after the change they report.  A reader
+ *  therefore creates a cookie file in .gitlet, whose top level the watcher
+ *  also watches, and reads until the watcher has recorded the cookie:
+ *  every change made before then is in the journal by that point.
+ *  @author beckettq
+ */
+class Watcher {
+
+    /** Identifies a change journal. */
+    private static final int MAGIC = 0x47434847; // "GCHG"
+    /** The change journal format version. */
+    private static final int VERSION = 1;
+    /** Length of the header. */
+    private static final int HEADER = 4 + 4 + 8;
+    /** Record kind: the path, or anything under it, changed. */
+    private static final int CHANGED = 1;
+    /** Record kind: events were lost. */
+    private static final int LOST = 2;
+    /** Record kind: a reader's cookie file appeared. */
+    private static final int COOKIE = 3;
+    /** A new session starts once the journal is this long. */
+    private static final long MAX_LENGTH = 16 << 20;
+    /** How long, in milliseconds, a reader waits for its cookie. */
+    private static final long COOKIE_WAIT = 2000;
+    /** Prefix of cookie files. */
+    private static final String COOKIE_PREFIX = "watch-cookie-";
+    /** Name of the file that asks the watcher to stop. */
+    private static final String STOP = "watch-stop";
+
+    /** The changes recorded between two tokens. */
+    static class Changes {
+        /** The session and position of the later token. */
+        final long session;
+        final long offset;
+        /** The paths that changed, relative to CWD. */
+        final HashSet<String> paths = new HashSet<>();
+        /** False if the earlier token was from another session or events
+         *  were lost, so that PATHS is not the whole story. */
+        boolean complete;
+
+        Changes(long session, long offset) {
+            this.session = session;
+            this.offset = offset;
+        }
+    }
+
+    private final WatchService service;
+    /** The directory of each registered key. */
+    private final HashMap<WatchKey, Path> dirs = new HashMap<>();
+    private final FileChannel journal;
+
+    private Watcher(WatchService service, FileChannel journal) {
+        this.service = service;
+        this.journal = journal;
+    }
+
+    /** Watches the working tree until asked to stop. */
+    static void run() {
+        try (FileChannel journal = FileChannel.open(CHANGES.toPath(), StandardOpenOption.CREATE,
+                 StandardOpenOption.READ, StandardOpenOption.WRITE);
+             WatchService service = FileSystems.getDefault().newWatchService()) {
+            FileLock lock = journal.tryLock();
+            if (lock == null) {
+                System.out.println("A gitlet watcher is already running.");
+                return;
+            }
+            new Watcher(service, journal).watch();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Asks a running watcher to stop. */
+    static void stop() {
+        if (!isRunning()) {
+            System.out.println("No gitlet watcher is running.");
+            return;
+        }
+        try {
+            new File(GITLET_DIR, STOP).createNewFile();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    private void watch() throws IOException {
+        dirs.put(GITLET_DIR.toPath().register(service, ENTRY_CREATE), GITLET_DIR.toPath());
+        registerAll(CWD.toPath());
+        startSession();
+        while (GITLET_DIR.isDirectory()) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            boolean stopping = false;
+            for (; key != null; key = service.poll()) {
+                stopping |= handle(key, new DataOutputStream(batch));
+                if (!key.reset()) {
+                    dirs.remove(key);
+                }
+            }
+            journal.write(ByteBuffer.wrap(batch.toByteArray()), journal.size());
+            if (stopping) {
+                new File(GITLET_DIR, STOP).delete();
+                return;
+            }
+            if (journal.size() > MAX_LENGTH) {
+                startSession();
+            }
+        }
+    }
+
+    /** Empties the journal and writes a header with a new session. */
+    private void startSession() throws IOException {
+        journal.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putLong(ThreadLocalRandom.current().nextLong() | 1);
+        journal.write(header.flip(), 0);
+    }
+
+    /** Registers DIR and every directory under it, outside .gitlet. */
+    private void registerAll(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                if (d.equals(GITLET_DIR.toPath())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                dirs.put(d.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /** Records the events of KEY in OUT, returning true if one of them
+     *  asks the watcher to stop. */
+    private boolean handle(WatchKey key, DataOutputStream out) throws IOException {
+        Path dir = dirs.get(key);
+        boolean stopping = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || dir == null) {
+                write(out, LOST, "");
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            if (dir.equals(GITLET_DIR.toPath())) {
+                String name = child.getFileName().toString();
+                if (name.startsWith(COOKIE_PREFIX)) {
+                    write(out, COOKIE, name);
+                }
+                stopping |= name.equals(STOP);
+                continue;
+            } else if (child.equals(GITLET_DIR.toPath())) {
+                continue;
+            }
+            write(out, CHANGED, CWD.toPath().relativize(child).toString().replace(File.separatorChar, '/'));
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                try {
+                    registerAll(child);
+                } catch (IOException e) {
+                    // it went away again, or could not be watched.
+                    write(out, LOST, "");
+                }
+            }
+        }
+        return stopping;
+    }
+
+    private static void write(DataOutputStream out, int kind, String path) throws IOException {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(kind);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Returns true if a watcher is running for this repository. */
+    static boolean isRunning() {
+        if (!CHANGES.exists()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(CHANGES.toPath(), StandardOpenOption.READ)) {
+            FileLock lock = channel.tryLock(0, Long.MAX_VALUE, true);
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Returns the paths changed since OFFSET in SESSION, up to a token
+     *  taken now, or null if no watcher is running or it did not answer.
+     *  The changes are incomplete if the token is from another session. */
+    static Changes since(long session, long offset) {
+        if (!isRunning()) {
+            return null;
+        }
+        File cookie;
+        try {
+            cookie = File.createTempFile(COOKIE_PREFIX, "", GITLET_DIR);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(CHANGES, "r")) {
+            long deadline = System.currentTimeMillis() + COOKIE_WAIT;
+            long current = 0;
+            long position = HEADER;
+            HashSet<String> paths = new HashSet<>();
+            boolean lost = false;
+            while (System.currentTimeMillis() < deadline) {
+                if (raf.length() < HEADER) {
+                    Thread.sleep(5);
+                    continue;
+                }
+                raf.seek(8);
+                long header = raf.readLong();
+                if (header != current) {
+                    // the watcher started a session since we last looked.
+                    current = header;
+                    position = header == session && offset >= HEADER ? offset : HEADER;
+                    paths.clear();
+                    lost = header != session;
+                }
+                byte[] bytes = new byte[(int) Math.max(0, raf.length() - position)];
+                raf.seek(position);
+                raf.readFully(bytes);
+                ByteBuffer buf = ByteBuffer.wrap(bytes);
+                while (buf.remaining() >= 3 && buf.remaining() >= 3 + (buf.getShort(buf.position() + 1) & 0xffff)) {
+                    int kind = buf.get();
+                    byte[] path = new byte[buf.getShort() & 0xffff];
+                    buf.get(path);
+                    String name = new String(path, StandardCharsets.UTF_8);
+                    if (kind == CHANGED) {
+                        paths.add(name);
+                    } else if (kind == LOST) {
+                        lost = true;
+                    } else if (kind == COOKIE && name.equals(cookie.getName())) {
+                        Changes changes = new Changes(current, position + buf.position());
+                        changes.paths.addAll(paths);
+                        changes.complete = !lost;
+                        return changes;
+                    }
+                }
+                position += buf.position();
+                Thread.sleep(5);
+            }
+            return null;
+        } catch (IOException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            cookie.delete();
+        }
+    }
+}
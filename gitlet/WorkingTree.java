@@ -0,0 +1,280 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+
+import static gitlet.Repository.CWD;
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Repository.SNAPSHOT;
+import static gitlet.Utils.*;
+
+/** A parallel scan of the working directory.
+ *
+ *  Each directory is a fork-join task that forks one task per
+ *  subdirectory and one per batch of its files, so both deep and wide
+ *  trees keep every thread busy.  A file whose contents are wanted is only
+ *  hashed if the stat data cached in the index does not vouch for it.
+ *
+ *  While a Watcher runs, the result of each scan is saved in SNAPSHOT
+ *  with the watcher's token, and the next scan starts from the snapshot
+ *  and only looks at the paths the watcher saw change since.  The
+ *  snapshot is a magic number, a version, the session and offset of the
+ *  token, the number of files, and each file's length-prefixed UTF-8 path
+ *  followed by a byte saying whether its 20-byte blob id follows.
+ *  @author beckettq
+ */
+class WorkingTree {
+
+    /** The most files hashed by one task. */
+    private static final int BATCH = 64;
+    /** Identifies a snapshot. */
+    private static final int MAGIC = 0x47534e50; // "GSNP"
+    /** The snapshot format version. */
+    private static final int VERSION = 1;
+
+    /** The result of a scan. */
+    static class Scan {
+        /** Every file found, by path relative to CWD, mapped to its blob id
+         *  if it was wanted and to null otherwise. */
+        final TreeMap<String, String> files = new TreeMap<>();
+        /** The paths that had to be hashed, whose stat data is worth
+         *  caching. */
+        final List<String> hashed = new ArrayList<>();
+    }
+
+    /** Returns every plain file under CWD, outside .gitlet, with the blob id
+     *  of each path satisfying WANTED.  Ids are taken from INDEX where its
+     *  stat data is current. */
+    static Scan scan(Index index, Predicate<String> wanted) {
+        Scan scan = new Scan();
+        run(new DirectoryTask(CWD.toPath(), "", index, wanted), scan);
+        return scan;
+    }
+
+    /** Returns the same as scan(), but if a Watcher is running, starts
+     *  from the last snapshot and only rescans what changed since it.  The
+     *  ids in the snapshot are of contents, so they stay valid whatever is
+     *  wanted; files that were not hashed then are hashed now if they are
+     *  wanted. */
+    static Scan current(Index index, Predicate<String> wanted) {
+        long[] token = new long[2];
+        TreeMap<String, String> snapshot = readSnapshot(token);
+        Watcher.Changes changes = Watcher.since(token[0], token[1]);
+        if (changes == null) {
+            return scan(index, wanted);
+        }
+        Scan scan;
+        if (snapshot == null || !changes.complete) {
+            scan = scan(index, wanted);
+        } else {
+            scan = new Scan();
+            scan.files.putAll(snapshot);
+            List<RecursiveTask<List<String[]>>> tasks = new ArrayList<>();
+            HashSet<String> recheck = new HashSet<>();
+            for (String path : changes.paths) {
+                scan.files.remove(path);
+                // '0' follows '/', so this is everything under PATH.
+                scan.files.subMap(path + "/", path + "0").clear();
+                Path file = CWD.toPath().resolve(path);
+                if (Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+                    tasks.add(new DirectoryTask(file, path + "/", index, wanted));
+                } else if (Files.isRegularFile(file)) {
+                    recheck.add(path);
+                }
+            }
+            for (Map.Entry<String, String> file : scan.files.entrySet()) {
+                if (file.getValue() == null && wanted.test(file.getKey())) {
+                    recheck.add(file.getKey());
+                }
+            }
+            List<String> names = new ArrayList<>(recheck);
+            for (int i = 0; i < names.size(); i += BATCH) {
+                tasks.add(new FilesTask(names.subList(i, Math.min(names.size(), i + BATCH)), index, wanted));
+            }
+            run(new Batch(tasks), scan);
+        }
+        writeSnapshot(changes.session, changes.offset, scan.files);
+        return scan;
+    }
+
+    /** Runs TASK on a fork-join pool, adding what it finds to SCAN. */
+    private static void run(RecursiveTask<List<String[]>> task, Scan scan) {
+        ForkJoinPool pool = new ForkJoinPool(THREADS);
+        try {
+            for (String[] file : pool.invoke(task)) {
+                scan.files.put(file[0], file[1]);
+                if (file[2] != null) {
+                    scan.hashed.add(file[0]);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Returns the files in SNAPSHOT, storing its token in TOKEN, or null
+     *  if there is no snapshot. */
+    private static TreeMap<String, String> readSnapshot(long[] token) {
+        if (!SNAPSHOT.isFile()) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(readContents(SNAPSHOT));
+        if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+            return null;
+        }
+        token[0] = buf.getLong();
+        token[1] = buf.getLong();
+        TreeMap<String, String> files = new TreeMap<>();
+        byte[] id = new byte[UID_LENGTH / 2];
+        for (int count = buf.getInt(); count > 0; count -= 1) {
+            byte[] path = new byte[buf.getShort() & 0xffff];
+            buf.get(path);
+            String name = new String(path, StandardCharsets.UTF_8);
+            if (buf.get() != 0) {
+                buf.get(id);
+                files.put(name, toHex(id));
+            } else {
+                files.put(name, null);
+            }
+        }
+        return files;
+    }
+
+    /** Saves FILES as the snapshot at OFFSET in SESSION. */
+    private static void writeSnapshot(long session, long offset, TreeMap<String, String> files) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(session);
+            out.writeLong(offset);
+            out.writeInt(files.size());
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                byte[] path = file.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeShort(path.length);
+                out.write(path);
+                out.writeBoolean(file.getValue() != null);
+                if (file.getValue() != null) {
+                    out.write(fromHex(file.getValue()));
+                }
+            }
+            out.close();
+            Journal.publish(SNAPSHOT, bytes.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Runs a list of tasks and gathers their results. */
+    private static class Batch extends RecursiveTask<List<String[]>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<RecursiveTask<List<String[]>>> tasks;
+
+        Batch(List<RecursiveTask<List<String[]>>> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected List<String[]> compute() {
+            List<String[]> result = new ArrayList<>();
+            for (RecursiveTask<List<String[]>> task : invokeAll(tasks)) {
+                result.addAll(task.join());
+            }
+            return result;
+        }
+    }
+
+    /** Lists one directory.  Results are {path, id or null, "hashed" or
+     *  null}. */
+    private static class DirectoryTask extends RecursiveTask<List<String[]>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final String prefix;
+        private final Index index;
+        private final Predicate<String> wanted;
+
+        DirectoryTask(Path dir, String prefix, Index index, Predicate<String> wanted) {
+            this.dir = dir;
+            this.prefix = prefix;
+            this.index = index;
+            this.wanted = wanted;
+        }
+
+        @Override
+        protected List<String[]> compute() {
+            List<RecursiveTask<List<String[]>>> tasks = new ArrayList<>();
+            List<String> files = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    String name = prefix + entry.getFileName();
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        if (!entry.equals(GITLET_DIR.toPath())) {
+                            tasks.add(new DirectoryTask(entry, name + "/", index, wanted));
+                        }
+                    } else if (Files.isRegularFile(entry)) {
+                        files.add(name);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+            for (int i = 0; i < files.size(); i += BATCH) {
+                tasks.add(new FilesTask(files.subList(i, Math.min(files.size(), i + BATCH)), index, wanted));
+            }
+            return new Batch(tasks).compute();
+        }
+    }
+
+    /** Identifies a batch of files in one directory. */
+    private static class FilesTask extends RecursiveTask<List<String[]>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> names;
+        private final Index index;
+        private final Predicate<String> wanted;
+
+        FilesTask(List<String> names, Index index, Predicate<String> wanted) {
+            this.names = names;
+            this.index = index;
+            this.wanted = wanted;
+        }
+
+        @Override
+        protected List<String[]> compute() {
+            List<String[]> result = new ArrayList<>(names.size());
+            for (String name : names) {
+                if (!wanted.test(name)) {
+                    result.add(new String[] {name, null, null});
+                    continue;
+                }
+                File file = Utils.join(CWD, name);
+                String id = index.cachedId(name, file);
+                if (id != null) {
+                    result.add(new String[] {name, id, null});
+                } else {
+                    result.add(new String[] {name, sha1(file), "hashed"});
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/** Tests of blob files written before blobs had headers.  The repository
+ *  lives in a fresh temporary directory, which becomes the JVM's user.dir
+ *  before gitlet.Repository is loaded.
+ *  @author beckettq
+ */
+public class BlobFileTest {
+
+    @BeforeClass
+    public static void makeRepository() throws IOException {
+        File dir = Files.createTempDirectory("gitlet-blob").toFile();
+        System.setProperty("user.dir", dir.getPath());
+        Main.main(new String[] {"init"});
+    }
+
+    /** Stores CONTENTS as a loose blob without a header, as older versions
+     *  of gitlet did, and returns its id. */
+    private static String writeLegacy(byte[] contents) {
+        String id = Utils.sha1((Object) contents);
+        Utils.writeContents(ObjectStore.newLooseFile(Repository.BLOBS, id), (Object) contents);
+        return id;
+    }
+
+    /** Headerless blobs that start with a magic number but not a header
+     *  that fits them are read as they are. */
+    @Test
+    public void readsLegacyBlobsStartingWithMagic() {
+        for (String text : new String[] {"GBLZ is how blobs start\n", "GCHK, a chunk manifest\n",
+                                         "GBLZ\u0001\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0005hello"}) {
+            byte[] contents = text.getBytes(StandardCharsets.UTF_8);
+            String id = writeLegacy(contents);
+            File loose = ObjectStore.looseFile(Repository.BLOBS, id);
+            assertArrayEquals(contents, ObjectStore.readBlob(id));
+            assertEquals(contents.length, BlobFile.rawSize(loose));
+            assertFalse(BlobFile.isChunked(loose));
+        }
+    }
+
+    /** A headerless blob that does look like an uncompressed blob with a
+     *  header is told apart by migrate, which gives it a header of its
+     *  own. */
+    @Test
+    public void migrateAddsHeaders() {
+        byte[] inner = "hello".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer fake = ByteBuffer.allocate(13 + inner.length);
+        fake.putInt(0x47424c5a).put((byte) Codec.NONE).putLong(inner.length).put(inner);
+        byte[] contents = fake.array();
+        String id = writeLegacy(contents);
+        byte[] plain = "no header here\n".getBytes(StandardCharsets.UTF_8);
+        String plainId = writeLegacy(plain);
+
+        Main.main(new String[] {"migrate"});
+        assertArrayEquals(contents, ObjectStore.readBlob(id));
+        assertArrayEquals(plain, ObjectStore.readBlob(plainId));
+        File loose = ObjectStore.looseFile(Repository.BLOBS, plainId);
+        assertEquals(13 + plain.length, loose.length());
+        assertFalse(BlobFile.addHeader(loose, plainId));
+    }
+}
@@ -0,0 +1,65 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/** Tests that deltas turn their base into their target.
+ *  @author beckettq
+ */
+public class DeltaTest {
+
+    /** Asserts that the delta from BASE to TARGET rebuilds TARGET. */
+    private static void roundTrip(byte[] base, byte[] target) {
+        assertArrayEquals(target, Delta.apply(base, Delta.encode(base, target)));
+    }
+
+    private static byte[] random(long seed, int length) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void emptyBase() {
+        roundTrip(new byte[0], "hello, world\n".getBytes(StandardCharsets.UTF_8));
+        roundTrip(new byte[0], random(1, 1000));
+        roundTrip(new byte[0], new byte[0]);
+    }
+
+    @Test
+    public void emptyTarget() {
+        roundTrip(random(2, 1000), new byte[0]);
+    }
+
+    @Test
+    public void unrelatedTarget() {
+        roundTrip(random(3, 5000), random(4, 7000));
+    }
+
+    @Test
+    public void editedTarget() {
+        byte[] base = random(5, 10000);
+        byte[] target = new byte[base.length + 10];
+        System.arraycopy(base, 0, target, 0, 4000);
+        System.arraycopy(random(6, 10), 0, target, 4000, 10);
+        System.arraycopy(base, 4000, target, 4010, base.length - 4000);
+        byte[] delta = Delta.encode(base, target);
+        assertTrue(delta.length < 100);
+        assertArrayEquals(target, Delta.apply(base, delta));
+    }
+
+    @Test
+    public void repeatedBlocks() {
+        byte[] base = new byte[256];
+        byte[] target = new byte[1000];
+        for (int i = 0; i < target.length; i += 1) {
+            target[i] = (byte) (i % 7);
+        }
+        roundTrip(base, target);
+        roundTrip(target, base);
+    }
+}
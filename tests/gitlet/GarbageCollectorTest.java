@@ -0,0 +1,63 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/** Tests of gc.  The repository lives in a fresh temporary directory,
+ *  which becomes the JVM's user.dir before gitlet.Repository is loaded.
+ *  @author beckettq
+ */
+public class GarbageCollectorTest {
+
+    /** The working directory of the repository. */
+    private static File dir;
+
+    @BeforeClass
+    public static void makeRepository() throws IOException {
+        dir = Files.createTempDirectory("gitlet-gc").toFile();
+        System.setProperty("user.dir", dir.getPath());
+        Main.main(new String[] {"init"});
+    }
+
+    /** A commit that no branch reaches but that is younger than the grace
+     *  period survives gc, and so must the older tree and blob it names. */
+    @Test
+    public void keepsWhatYoungCommitsReach() throws IOException {
+        File file = new File(dir, "f.txt");
+        Utils.writeContents(file, "hello\n");
+        Main.main(new String[] {"add", "f.txt"});
+        Main.main(new String[] {"commit", "one"});
+        String id = Repository.getRepo().getHeadCommit();
+        Commit commit = ObjectStore.readCommit(id);
+        String blob = commit.fileId("f.txt");
+        Main.main(new String[] {"reset", commit.parent});
+
+        long old = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(30);
+        try (Stream<Path> walk = Files.walk(Repository.GITLET_DIR.toPath())) {
+            walk.forEach(p -> p.toFile().setLastModified(old));
+        }
+        ObjectStore.looseFile(Repository.COMMITS, id).setLastModified(System.currentTimeMillis());
+        Main.main(new String[] {"gc"});
+        ObjectCache.shared().clear();
+
+        assertTrue(ObjectStore.hasCommit(id));
+        assertTrue(ObjectStore.hasTree(commit.treeId()));
+        assertTrue(ObjectStore.hasBlob(blob));
+        file.delete();
+        Main.main(new String[] {"checkout", id, "--", "f.txt"});
+        assertEquals("hello\n", Utils.readContentsAsString(file));
+
+        Main.main(new String[] {"repack"});
+        assertTrue(ObjectStore.hasTree(commit.treeId()));
+        assertTrue(ObjectStore.hasBlob(blob));
+    }
+}
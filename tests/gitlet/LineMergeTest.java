@@ -0,0 +1,133 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/** Tests of three-way line merges, directly and through merge.  The
+ *  repository lives in a fresh temporary directory, which becomes the
+ *  JVM's user.dir before gitlet.Repository is loaded.
+ *  @author beckettq
+ */
+public class LineMergeTest {
+
+    /** The working directory of the repository. */
+    private static File dir;
+
+    @BeforeClass
+    public static void makeRepository() throws IOException {
+        dir = Files.createTempDirectory("gitlet-merge").toFile();
+        System.setProperty("user.dir", dir.getPath());
+        Main.main(new String[] {"init"});
+    }
+
+    /** The merged text and whether it conflicted. */
+    private static String merged;
+    private static boolean conflict;
+
+    /** Merges HEAD and OTHER against BASE into MERGED and CONFLICT.  When
+     *  DIRECT, the versions are given in direct buffers, as mapped files
+     *  are. */
+    private static void merge(String base, String head, String other, boolean direct) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        conflict = LineMerge.merge(buffer(base, direct), buffer(head, direct), buffer(other, direct), out);
+        merged = out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void merge(String base, String head, String other) throws IOException {
+        merge(base, head, other, false);
+    }
+
+    private static ByteBuffer buffer(String text, boolean direct) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (!direct) {
+            return ByteBuffer.wrap(bytes);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer;
+    }
+
+    @Test
+    public void cleanSeparateEdits() throws IOException {
+        for (boolean direct : new boolean[] {false, true}) {
+            merge("a\nb\nc\nd\ne\n", "A\nb\nc\nd\ne\n", "a\nb\nc\nd\nE\n", direct);
+            assertFalse(conflict);
+            assertEquals("A\nb\nc\nd\nE\n", merged);
+        }
+        merge("a\nb\nc\n", "a\nb\nc\nd\n", "z\na\nb\nc\n");
+        assertFalse(conflict);
+        assertEquals("z\na\nb\nc\nd\n", merged);
+    }
+
+    @Test
+    public void sameEditOnBothSides() throws IOException {
+        merge("a\nb\nc\n", "a\nB\nc\n", "a\nB\nc\n");
+        assertFalse(conflict);
+        assertEquals("a\nB\nc\n", merged);
+        merge("a\nb\nc\n", "a\nc\n", "a\nc\n");
+        assertFalse(conflict);
+        assertEquals("a\nc\n", merged);
+    }
+
+    @Test
+    public void overlappingEditsConflict() throws IOException {
+        merge("a\nb\nc\nd\n", "a\nhead\nc\nd\n", "a\nother\nc\nd\n");
+        assertTrue(conflict);
+        assertEquals("a\n<<<<<<< HEAD\nhead\n=======\nother\n>>>>>>>\nc\nd\n", merged);
+    }
+
+    @Test
+    public void deleteAgainstModify() throws IOException {
+        merge("a\nb\nc\n", "a\nc\n", "a\nbee\nc\n");
+        assertTrue(conflict);
+        assertEquals("a\n<<<<<<< HEAD\n=======\nbee\n>>>>>>>\nc\n", merged);
+        // the whole file deleted on one side.
+        merge("a\nb\n", "", "a\nB\n");
+        assertTrue(conflict);
+        assertEquals("<<<<<<< HEAD\n=======\na\nB\n>>>>>>>\n", merged);
+    }
+
+    @Test
+    public void lastLineWithoutNewline() throws IOException {
+        merge("a\nb\nc", "A\nb\nc", "a\nb\nc\nd");
+        assertFalse(conflict);
+        assertEquals("A\nb\nc\nd", merged);
+    }
+
+    /** A file large enough to be memory mapped merges cleanly when the two
+     *  branches edit different lines. */
+    @Test
+    public void mergesLargeFiles() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100000; i += 1) {
+            text.append("line ").append(i).append('\n');
+        }
+        File file = new File(dir, "big.txt");
+        String base = text.toString();
+        Utils.writeContents(file, base);
+        Main.main(new String[] {"add", "big.txt"});
+        Main.main(new String[] {"commit", "big"});
+        Main.main(new String[] {"branch", "other"});
+        Utils.writeContents(file, base.replace("line 10\n", "line ten\n"));
+        Main.main(new String[] {"add", "big.txt"});
+        Main.main(new String[] {"commit", "ten"});
+        Main.main(new String[] {"checkout", "other"});
+        Utils.writeContents(file, base.replace("line 99990\n", "line 99,990\n"));
+        Main.main(new String[] {"add", "big.txt"});
+        Main.main(new String[] {"commit", "99990"});
+        Main.main(new String[] {"checkout", "master"});
+        Main.main(new String[] {"merge", "other"});
+        String expected = base.replace("line 10\n", "line ten\n").replace("line 99990\n", "line 99,990\n");
+        assertEquals(expected, Utils.readContentsAsString(file));
+        Main.main(new String[] {"status"});
+    }
+}
@@ -0,0 +1,86 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/** Tests of the message index used by find.  The repository lives in a
+ *  fresh temporary directory, which becomes the JVM's user.dir before
+ *  gitlet.Repository is loaded.
+ *  @author beckettq
+ */
+public class MessageIndexTest {
+
+    @BeforeClass
+    public static void makeRepository() throws IOException {
+        System.setProperty("user.dir", Files.createTempDirectory("gitlet-find").toFile().getPath());
+        Main.main(new String[] {"init"});
+    }
+
+    /** Returns a made-up commit id for the number N. */
+    private static String id(int n) {
+        return Utils.sha1("commit " + n);
+    }
+
+    /** Records enough long messages to rewrite the index several times,
+     *  checking every kind of search against both its sorted part and its
+     *  tail. */
+    @Test
+    public void searchesAcrossRewrites() {
+        String padding = "x".repeat(4000);
+        List<String> evens = new ArrayList<>();
+        for (int n = 0; n < 60; n += 1) {
+            String message = (n % 2 == 0 ? "Even" : "odd") + " change " + n + " " + padding;
+            MessageIndex.add(id(n), message);
+            if (n % 2 == 0) {
+                evens.add(id(n));
+            }
+        }
+        MessageIndex.add(id(1000), "fix the parser");
+        MessageIndex.add(id(1001), "fix the parser");
+        MessageIndex.add(id(1002), "Parser: fix");
+        evens.sort(null);
+
+        MessageIndex index = MessageIndex.read();
+        assertEquals(List.of(id(3)), index.exact("odd change 3 " + padding));
+        assertEquals(sorted(id(1000), id(1001)), index.exact("fix the parser"));
+        assertEquals(List.of(), index.exact("fix the"));
+        assertEquals(evens, index.prefix("Even change"));
+        assertEquals(sorted(id(1000), id(1001)), index.prefix("fix"));
+        assertEquals(sorted(id(1000), id(1001), id(1002)), index.words("PARSER fix"));
+        assertEquals(List.of(id(42)), index.words("even 42"));
+        assertEquals(List.of(), index.words("even 43"));
+        assertEquals(List.of(Repository.getRepo().getHeadCommit()), index.exact("initial commit"));
+    }
+
+    /** A partial record at the end of the file is ignored, and replaced by
+     *  the next one appended. */
+    @Test
+    public void ignoresTornTail() throws IOException {
+        MessageIndex.add(id(2000), "before the tear");
+        try (RandomAccessFile raf = new RandomAccessFile(Repository.MESSAGES, "rw")) {
+            raf.seek(raf.length());
+            raf.write(Utils.fromHex(id(2001)));
+            raf.writeInt(1000);
+            raf.write("torn".getBytes());
+        }
+        assertEquals(List.of(), MessageIndex.read().words("torn"));
+        MessageIndex.add(id(2002), "after the tear");
+        MessageIndex index = MessageIndex.read();
+        assertEquals(List.of(id(2000)), index.exact("before the tear"));
+        assertEquals(List.of(id(2002)), index.exact("after the tear"));
+    }
+
+    private static List<String> sorted(String... ids) {
+        List<String> result = new ArrayList<>(List.of(ids));
+        result.sort(null);
+        return result;
+    }
+}